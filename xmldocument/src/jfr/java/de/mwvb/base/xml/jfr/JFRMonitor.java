@@ -0,0 +1,84 @@
+package de.mwvb.base.xml.jfr;
+
+import de.mwvb.base.xml.XMLMonitor;
+import de.mwvb.base.xml.XMLStatistics;
+
+/**
+ * XMLMonitor that emits Java Flight Recorder events
+ *
+ * <p>The events are named de.mwvb.base.xml.Load, de.mwvb.base.xml.Query and de.mwvb.base.xml.Save.
+ * They are enabled, disabled and filtered by threshold with the usual JFR settings, e.g.
+ * <pre>jcmd &lt;pid&gt; JFR.start settings=profile +de.mwvb.base.xml.Query#enabled=true</pre>
+ * A disabled event is not monitored at all, so e.g. the statistics of a load are only computed if the load event is enabled.
+ * The duration of a load event does not include computing the statistics.
+ * <p>Requires Java 11. Build with: gradle build -Pjfr
+ *
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+public class JFRMonitor extends XMLMonitor {
+
+	/**
+	 * Installs a JFRMonitor as XMLMonitor.
+	 */
+	public static void install() {
+		XMLMonitor.install(new JFRMonitor());
+	}
+
+	@Override
+	protected Object loadStarted(final String sourceType) {
+		return begin(new XMLLoadEvent());
+	}
+
+	@Override
+	protected void loadParsed(final Object token) {
+		((XMLLoadEvent) token).end();
+	}
+
+	@Override
+	protected void loadFinished(final Object token, final String sourceType, final long size,
+			final XMLStatistics statistics) {
+		final XMLLoadEvent event = (XMLLoadEvent) token;
+		event.sourceType = sourceType;
+		event.size = size;
+		event.elementCount = statistics.getElementCount();
+		event.nodeCount = statistics.getElementCount() + statistics.getAttributeCount()
+				+ statistics.getTextNodeCount() + statistics.getOtherNodeCount();
+		event.maxDepth = statistics.getMaxDepth();
+		event.commit(); // keeps the end time set by loadParsed()
+	}
+
+	@Override
+	protected Object queryStarted(final String xpath) {
+		return begin(new XMLQueryEvent());
+	}
+
+	@Override
+	protected void queryFinished(final Object token, final String xpath, final int resultSize) {
+		final XMLQueryEvent event = (XMLQueryEvent) token;
+		event.xpath = xpath;
+		event.resultSize = resultSize;
+		event.commit();
+	}
+
+	@Override
+	protected Object saveStarted(final String target) {
+		return begin(new XMLSaveEvent());
+	}
+
+	@Override
+	protected void saveFinished(final Object token, final String target, final long size) {
+		final XMLSaveEvent event = (XMLSaveEvent) token;
+		event.target = target;
+		event.size = size;
+		event.commit();
+	}
+
+	private static jdk.jfr.Event begin(final jdk.jfr.Event event) {
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+}
@@ -0,0 +1,38 @@
+package de.mwvb.base.xml.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for loading an XMLDocument
+ *
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+@Name("de.mwvb.base.xml.Load")
+@Label("XML Load")
+@Category("XML")
+@Description("XMLDocument parsed from a string, file, stream or W3C document")
+class XMLLoadEvent extends Event {
+	@Label("Source Type")
+	String sourceType;
+
+	@Label("Size")
+	@Description("Bytes read, characters for source type string, -1 if unknown")
+	@DataAmount
+	long size;
+
+	@Label("Element Count")
+	long elementCount;
+
+	@Label("Node Count")
+	@Description("Number of element, attribute, text and other nodes")
+	long nodeCount;
+
+	@Label("Max Depth")
+	int maxDepth;
+}
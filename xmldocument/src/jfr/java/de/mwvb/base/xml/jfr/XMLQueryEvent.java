@@ -0,0 +1,25 @@
+package de.mwvb.base.xml.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for an XPath evaluation
+ *
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+@Name("de.mwvb.base.xml.Query")
+@Label("XML XPath Query")
+@Category("XML")
+@Description("selectNodes, selectSingleNode, exists, count, selectFirst or XMLQuery evaluation")
+class XMLQueryEvent extends Event {
+	@Label("XPath")
+	String xpath;
+
+	@Label("Result Size")
+	int resultSize;
+}
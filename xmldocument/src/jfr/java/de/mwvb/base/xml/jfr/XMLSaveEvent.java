@@ -0,0 +1,29 @@
+package de.mwvb.base.xml.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for saving an XMLDocument or calling getXML()
+ *
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+@Name("de.mwvb.base.xml.Save")
+@Label("XML Save")
+@Category("XML")
+@Description("XMLDocument written to a file or serialized by getXML()")
+class XMLSaveEvent extends Event {
+	@Label("Target")
+	@Description("File name, null for getXML()")
+	String target;
+
+	@Label("Size")
+	@Description("Bytes written to the file, characters for getXML()")
+	@DataAmount
+	long size;
+}
@@ -0,0 +1,111 @@
+package de.mwvb.base.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Background load in two stages: the I/O executor reads the file into memory, then the parse executor
+ * parses it. So slow I/O does not occupy the threads needed for parsing.
+ *
+ * <p>Cancelling interrupts the running stage. After a cancelled read the parse stage is not started.
+ *
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+class AsyncLoad extends FutureTask<XMLDocument> {
+	/** some JVMs reserve header words in an array */
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+	private final Content content;
+	private volatile Future<?> read;
+
+	private AsyncLoad(final Content content) {
+		super(content);
+		this.content = content;
+	}
+
+	/**
+	 * @param fileName name of file in file system
+	 * @param ioExecutor executor that reads the file
+	 * @param parseExecutor executor that parses the file content
+	 * @return Future delivering the loaded XMLDocument
+	 */
+	static Future<XMLDocument> start(final String fileName, final ExecutorService ioExecutor,
+			final ExecutorService parseExecutor) {
+		final AsyncLoad ret = new AsyncLoad(new Content());
+		ret.read = ioExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					ret.content.bytes = readFile(new File(fileName));
+				} catch (Exception e) {
+					ret.setException(e);
+					return;
+				}
+				if (!ret.isDone()) {
+					try {
+						parseExecutor.execute(ret);
+					} catch (RejectedExecutionException e) {
+						ret.setException(e);
+					}
+				}
+			}
+		});
+		return ret;
+	}
+
+	@Override
+	public boolean cancel(final boolean mayInterruptIfRunning) {
+		final boolean ret = super.cancel(mayInterruptIfRunning);
+		final Future<?> r = read;
+		if (r != null) {
+			r.cancel(mayInterruptIfRunning);
+		}
+		return ret;
+	}
+
+	private static byte[] readFile(final File file) throws Exception {
+		final long length = file.length();
+		if (length > MAX_ARRAY_SIZE) {
+			throw new IOException("File is too large to be loaded asynchronously (" + length + " bytes): " + file);
+		}
+		final byte[] ret = new byte[(int) length];
+		final InputStream in = new InterruptibleInputStream(new FileInputStream(file));
+		try {
+			int off = 0;
+			while (off < ret.length) {
+				final int len = in.read(ret, off, ret.length - off);
+				if (len < 0) { // file has been shortened meanwhile
+					return Arrays.copyOf(ret, off);
+				}
+				off += len;
+			}
+		} finally {
+			in.close();
+		}
+		return ret;
+	}
+
+	/**
+	 * Parse stage
+	 */
+	private static class Content implements Callable<XMLDocument> {
+		volatile byte[] bytes;
+
+		@Override
+		public XMLDocument call() {
+			final XMLDocument ret = new XMLDocument();
+			ret.loadStream(new InterruptibleInputStream(new ByteArrayInputStream(bytes)));
+			bytes = null;
+			return ret;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package de.mwvb.base.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Base64 encoding (RFC 4648, without line breaks) for streaming binary content into text nodes
+ *
+ * <p>Chunks whose length is a multiple of 3 can be encoded separately, the concatenated results are
+ * the encoding of the whole content. The Decoder accepts the text in any number of parts and ignores whitespace.
+ *
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+class Base64Codec {
+	private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+	private static final int[] VALUES = new int[128];
+
+	static {
+		Arrays.fill(VALUES, -1);
+		for (int i = 0; i < ALPHABET.length; i++) {
+			VALUES[ALPHABET[i]] = i;
+		}
+	}
+
+	private Base64Codec() {
+	}
+
+	/**
+	 * @param bytes data
+	 * @param off offset
+	 * @param len number of bytes, must be a multiple of 3 unless it is the last chunk
+	 * @return Base64 text with padding
+	 */
+	static String encode(final byte[] bytes, final int off, final int len) {
+		final char[] ret = new char[(len + 2) / 3 * 4];
+		int o = 0;
+		for (int i = off, end = off + len; i < end; i += 3) {
+			final int b0 = bytes[i] & 0xFF;
+			final int b1 = i + 1 < end ? bytes[i + 1] & 0xFF : 0;
+			final int b2 = i + 2 < end ? bytes[i + 2] & 0xFF : 0;
+			ret[o++] = ALPHABET[b0 >>> 2];
+			ret[o++] = ALPHABET[((b0 & 0x03) << 4) | (b1 >>> 4)];
+			ret[o++] = i + 1 < end ? ALPHABET[((b1 & 0x0F) << 2) | (b2 >>> 6)] : '=';
+			ret[o++] = i + 2 < end ? ALPHABET[b2 & 0x3F] : '=';
+		}
+		return new String(ret);
+	}
+
+	/**
+	 * Decodes Base64 text given in parts and writes the bytes to an OutputStream.
+	 */
+	static class Decoder {
+		private final OutputStream out;
+		private final byte[] buf = new byte[3 * 1024];
+		private int size = 0;
+		/** collected 6 bit values */
+		private int bits = 0;
+		private int count = 0;
+		private boolean padding = false;
+
+		Decoder(final OutputStream out) {
+			this.out = out;
+		}
+
+		void write(final String text) throws IOException {
+			for (int i = 0; i < text.length(); i++) {
+				final char c = text.charAt(i);
+				if (c == '=') {
+					padding = true;
+				} else if (c > ' ') {
+					final int v = c < 128 ? VALUES[c] : -1;
+					if (v < 0 || padding) {
+						throw new IOException("Invalid Base64 content at character " + c);
+					}
+					bits = (bits << 6) | v;
+					if (++count == 4) {
+						put(bits >>> 16);
+						put(bits >>> 8);
+						put(bits);
+						bits = 0;
+						count = 0;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Writes the remaining bytes. Does not close the OutputStream.
+		 */
+		void finish() throws IOException {
+			if (count == 1) {
+				throw new IOException("Invalid Base64 content: truncated");
+			} else if (count == 2) {
+				put(bits >>> 4);
+			} else if (count == 3) {
+				put(bits >>> 10);
+				put(bits >>> 2);
+			}
+			count = 0;
+			out.write(buf, 0, size);
+			size = 0;
+		}
+
+		private void put(final int b) throws IOException {
+			if (size == buf.length) {
+				out.write(buf, 0, size);
+				size = 0;
+			}
+			buf[size++] = (byte) b;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package de.mwvb.base.xml;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.dom4j.Attribute;
+import org.dom4j.Element;
+import org.dom4j.Namespace;
+import org.dom4j.Node;
+import org.dom4j.io.OutputFormat;
+import org.dom4j.io.XMLWriter;
+
+/**
+ * XMLWriter that reuses the cached XML of unchanged TrackingElements
+ * and caches the XML of the TrackingElements it has to serialize.
+ * 
+ * <p>Only elements without namespace declarations below an ancestor path without namespace declarations
+ * are cached, because their output does not depend on the context.
+ * 
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+class CachingXMLWriter extends XMLWriter {
+	/** number of open elements which must not be cached */
+	private int uncacheableDepth = 0;
+	/** false if an element of the current fragment could not be cached */
+	private boolean complete = true;
+
+	private CachingXMLWriter(final Writer writer) {
+		super(writer, new OutputFormat());
+	}
+
+	/**
+	 * Same as Node.asXML(), but using the cache.
+	 * 
+	 * @param node Document or Element
+	 * @return XML String
+	 */
+	static String asXML(final Node node) {
+		try {
+			final StringWriter out = new StringWriter();
+			final CachingXMLWriter writer = new CachingXMLWriter(out);
+			writer.write(node);
+			writer.flush();
+			return out.toString();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	protected void writeElement(final Element element) throws IOException {
+		if (uncacheableDepth > 0 || !(element instanceof TrackingElement) || !isNamespaceFree(element)) {
+			complete = false;
+			uncacheableDepth++;
+			try {
+				super.writeElement(element);
+			} finally {
+				uncacheableDepth--;
+			}
+			return;
+		}
+		final TrackingElement e = (TrackingElement) element;
+		String xml = e.getCachedXML();
+		if (xml == null) {
+			final Writer outer = writer;
+			final boolean outerComplete = complete;
+			final StringWriter fragment = new StringWriter();
+			writer = fragment;
+			complete = true;
+			try {
+				super.writeElement(element);
+			} finally {
+				writer = outer;
+			}
+			xml = fragment.toString();
+			if (complete) {
+				e.setCachedXML(xml);
+			}
+			complete = outerComplete && complete;
+		}
+		writer.write(xml);
+		lastOutputNodeType = Node.ELEMENT_NODE;
+	}
+
+	private static boolean isNamespaceFree(final Element element) {
+		if (element.getNamespaceURI().length() > 0 || element.getNamespacePrefix().length() > 0) {
+			return false;
+		}
+		for (int i = 0, n = element.attributeCount(); i < n; i++) {
+			final Attribute attr = element.attribute(i);
+			final Namespace ns = attr.getNamespace();
+			if ((ns != null && ns != Namespace.NO_NAMESPACE && ns != Namespace.XML_NAMESPACE)
+					|| attr.getName().startsWith("xmlns")) {
+				return false;
+			}
+		}
+		for (int i = 0, n = element.nodeCount(); i < n; i++) {
+			if (element.node(i) instanceof Namespace) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,143 @@
+package de.mwvb.base.xml;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dom4j.Element;
+
+/**
+ * Child elements of an IndexedElement with their positions in the content list
+ *
+ * <p>Is built with one pass over the content and dropped by the IndexedElement on each structural change,
+ * except for IndexedElement.insertChild() and reorderChildren() which update it. Access by index is O(1),
+ * indexByName() is O(log n).
+ *
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+class ChildIndex {
+	private Element[] elements;
+	/** position of elements[i] in the content list */
+	private int[] positions;
+	private int size = 0;
+	/** element name to ascending child indexes, null if not built yet */
+	private Map<String, int[]> byName;
+
+	ChildIndex(final List<?> content) {
+		final int n = content.size();
+		elements = new Element[Math.max(n, 4)];
+		positions = new int[elements.length];
+		for (int i = 0; i < n; i++) {
+			final Object node = content.get(i);
+			if (node instanceof Element) {
+				elements[size] = (Element) node;
+				positions[size++] = i;
+			}
+		}
+	}
+
+	/**
+	 * @return number of child elements
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @param index 0 based child element index
+	 * @return child element
+	 */
+	Element get(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return elements[index];
+	}
+
+	/**
+	 * @param index 0 based child element index
+	 * @return position of the child element in the content list
+	 */
+	int position(final int index) {
+		get(index);
+		return positions[index];
+	}
+
+	/**
+	 * Must be called after an element has been inserted into the content list.
+	 *
+	 * @param index 0 based child element index of the new element
+	 * @param e new element
+	 * @param position position of the new element in the content list
+	 */
+	void inserted(final int index, final Element e, final int position) {
+		if (size == elements.length) {
+			elements = Arrays.copyOf(elements, size * 2);
+			positions = Arrays.copyOf(positions, size * 2);
+		}
+		System.arraycopy(elements, index, elements, index + 1, size - index);
+		System.arraycopy(positions, index, positions, index + 1, size - index);
+		elements[index] = e;
+		positions[index] = position;
+		size++;
+		for (int i = index + 1; i < size; i++) {
+			positions[i]++;
+		}
+		byName = null;
+	}
+
+	/**
+	 * Must be called after child elements have been exchanged in the content list.
+	 *
+	 * @param start 0 based child element index of the first exchanged element
+	 * @param newElements elements in their new order
+	 */
+	void replaced(final int start, final Element[] newElements) {
+		System.arraycopy(newElements, 0, elements, start, newElements.length);
+		byName = null;
+	}
+
+	/**
+	 * @param name element name
+	 * @param start 0 based child element index
+	 * @return index of the first child element with the given name at or after start, -1 if not found
+	 */
+	int indexByName(final String name, final int start) {
+		if (byName == null) {
+			buildByName();
+		}
+		final int[] indexes = byName.get(name);
+		if (indexes == null) {
+			return -1;
+		}
+		int i = Arrays.binarySearch(indexes, start);
+		if (i < 0) {
+			i = -i - 1;
+		}
+		return i < indexes.length ? indexes[i] : -1;
+	}
+
+	private void buildByName() {
+		final Map<String, int[]> counts = new HashMap<String, int[]>();
+		for (int i = 0; i < size; i++) {
+			final int[] count = counts.get(elements[i].getName());
+			if (count == null) {
+				counts.put(elements[i].getName(), new int[] { 1 });
+			} else {
+				count[0]++;
+			}
+		}
+		final Map<String, int[]> map = new HashMap<String, int[]>();
+		for (Map.Entry<String, int[]> e : counts.entrySet()) {
+			map.put(e.getKey(), new int[e.getValue()[0]]);
+			e.getValue()[0] = 0; // from now on: fill level
+		}
+		for (int i = 0; i < size; i++) {
+			final String name = elements[i].getName();
+			map.get(name)[counts.get(name)[0]++] = i;
+		}
+		byName = map;
+	}
+}
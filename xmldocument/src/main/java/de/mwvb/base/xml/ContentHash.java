@@ -0,0 +1,202 @@
+package de.mwvb.base.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.dom4j.Attribute;
+import org.dom4j.CharacterData;
+import org.dom4j.Comment;
+import org.dom4j.Element;
+import org.dom4j.Entity;
+import org.dom4j.Node;
+import org.dom4j.ProcessingInstruction;
+
+/**
+ * Canonical content hash and content comparison of element subtrees
+ *
+ * <p>Canonical means: namespace prefixes, the order of attributes, comments and the difference between
+ * text and CDATA are ignored. Adjacent text is compared as one text, empty text is ignored. Whitespace is significant.
+ * <p>The hash of a TrackingElement is cached and invalidated by TrackingElement.changed().
+ *
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+class ContentHash {
+	private static final long OFFSET = 0xcbf29ce484222325L; // FNV-1a 64 bit
+	private static final long PRIME = 0x100000001b3L;
+	private static final Comparator<Attribute> ATTRIBUTE_ORDER = new Comparator<Attribute>() {
+		@Override
+		public int compare(final Attribute a, final Attribute b) {
+			final int r = a.getNamespaceURI().compareTo(b.getNamespaceURI());
+			return r == 0 ? a.getName().compareTo(b.getName()) : r;
+		}
+	};
+	private long hash = OFFSET;
+	/** false if there's a descendant that can not invalidate a cached hash */
+	private boolean cacheable = true;
+
+	private ContentHash() {
+	}
+
+	/**
+	 * @param e element
+	 * @return hash of the element and all its descendants, never 0
+	 */
+	static long hash(final Element e) {
+		return new ContentHash().element(e);
+	}
+
+	private long element(final Element e) {
+		if (e instanceof TrackingElement) {
+			final long cached = ((TrackingElement) e).getContentHash();
+			if (cached != 0) {
+				return cached;
+			}
+		} else {
+			cacheable = false;
+		}
+		final long h = compute(e);
+		if (cacheable && e instanceof TrackingElement) {
+			((TrackingElement) e).setContentHash(h);
+		}
+		return h;
+	}
+
+	private long compute(final Element e) {
+		add(e.getNamespaceURI());
+		add(e.getName());
+		for (Attribute a : sortedAttributes(e)) {
+			add(a.getNamespaceURI());
+			add(a.getName());
+			add(a.getValue());
+		}
+		for (Object item : content(e)) {
+			if (item instanceof Element) {
+				add('E');
+				add(new ContentHash().merge(this, (Element) item));
+			} else if (item instanceof ProcessingInstruction) {
+				add('P');
+				add(((ProcessingInstruction) item).getTarget());
+				add(((ProcessingInstruction) item).getText());
+			} else {
+				add('T');
+				add((String) item);
+			}
+		}
+		add('/');
+		return hash == 0 ? 1 : hash;
+	}
+
+	/** computes the hash of a child element and passes the cacheable state to the parent */
+	private long merge(final ContentHash parent, final Element child) {
+		final long ret = element(child);
+		if (!cacheable) {
+			parent.cacheable = false;
+		}
+		return ret;
+	}
+
+	private void add(final long value) {
+		for (int i = 0; i < 64; i += 8) {
+			hash = (hash ^ ((value >>> i) & 0xff)) * PRIME;
+		}
+	}
+
+	private void add(final String s) {
+		add(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			final char c = s.charAt(i);
+			hash = (hash ^ (c & 0xff)) * PRIME;
+			hash = (hash ^ (c >>> 8)) * PRIME;
+		}
+	}
+
+	/**
+	 * @param a element
+	 * @param b element
+	 * @return true if both elements have the same canonical content
+	 */
+	static boolean equal(final Element a, final Element b) {
+		if (a == b) {
+			return true;
+		}
+		if (hash(a) != hash(b)
+				|| !a.getNamespaceURI().equals(b.getNamespaceURI()) || !a.getName().equals(b.getName())) {
+			return false;
+		}
+		final Attribute[] aa = sortedAttributes(a);
+		final Attribute[] ba = sortedAttributes(b);
+		if (aa.length != ba.length) {
+			return false;
+		}
+		for (int i = 0; i < aa.length; i++) {
+			if (ATTRIBUTE_ORDER.compare(aa[i], ba[i]) != 0 || !aa[i].getValue().equals(ba[i].getValue())) {
+				return false;
+			}
+		}
+		final List<Object> ac = content(a);
+		final List<Object> bc = content(b);
+		if (ac.size() != bc.size()) {
+			return false;
+		}
+		for (int i = 0; i < ac.size(); i++) {
+			final Object x = ac.get(i);
+			final Object y = bc.get(i);
+			if (x instanceof Element && y instanceof Element) {
+				if (!equal((Element) x, (Element) y)) {
+					return false;
+				}
+			} else if (x instanceof ProcessingInstruction && y instanceof ProcessingInstruction) {
+				final ProcessingInstruction px = (ProcessingInstruction) x;
+				final ProcessingInstruction py = (ProcessingInstruction) y;
+				if (!px.getTarget().equals(py.getTarget()) || !px.getText().equals(py.getText())) {
+					return false;
+				}
+			} else if (!(x instanceof String && x.equals(y))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Attribute[] sortedAttributes(final Element e) {
+		final int n = e.attributeCount();
+		final Attribute[] ret = new Attribute[n];
+		for (int i = 0; i < n; i++) {
+			ret[i] = e.attribute(i);
+		}
+		if (n > 1) {
+			Arrays.sort(ret, ATTRIBUTE_ORDER);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return canonical content: Element, ProcessingInstruction and String for merged text
+	 */
+	private static List<Object> content(final Element e) {
+		final List<Object> ret = new ArrayList<Object>();
+		StringBuilder text = null;
+		for (int i = 0, n = e.nodeCount(); i < n; i++) {
+			final Node node = e.node(i);
+			if (node instanceof Element || node instanceof ProcessingInstruction) {
+				if (text != null && text.length() > 0) {
+					ret.add(text.toString());
+				}
+				text = null;
+				ret.add(node);
+			} else if ((node instanceof CharacterData || node instanceof Entity) && !(node instanceof Comment)) {
+				if (text == null) {
+					text = new StringBuilder();
+				}
+				text.append(node.getText());
+			} // comments and namespace declarations are ignored
+		}
+		if (text != null && text.length() > 0) {
+			ret.add(text.toString());
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,242 @@
+package de.mwvb.base.xml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.Node;
+
+/**
+ * Index: element name to all elements of the document with that name, in document order
+ * 
+ * <p>The index is built on first use. Removed elements are collected and taken out of their lists with one pass
+ * per affected name on the next access, so removing many elements stays linear. Elements added at the end of the document
+ * are appended. For other additions and reorderings the affected names are marked as unordered and will be
+ * reordered with one document walk on the next access.
+ * 
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+class ElementNameIndex implements TrackingListener {
+	private final Document doc;
+	/** null if not built */
+	private Map<String, List<Element>> map;
+	private final Set<String> unordered = new HashSet<String>();
+	/** removed elements by name, still contained in the lists of map */
+	private final Map<String, Set<Element>> removed = new HashMap<String, Set<Element>>();
+	/** true while build() walks the tree. Lazy elements loaded by the walk must not be added by elementAdded(). */
+	private boolean building = false;
+
+	ElementNameIndex(final Document doc) {
+		this.doc = doc;
+	}
+
+	/**
+	 * @param name element name (without namespace prefix)
+	 * @return all elements with given name in document order, must not be changed
+	 */
+	List<Element> get(final String name) {
+		if (map == null) {
+			build();
+		} else {
+			if (!removed.isEmpty()) {
+				compact();
+			}
+			if (!unordered.isEmpty()) {
+				reorder();
+			}
+		}
+		final List<Element> list = map.get(name);
+		if (list == null) {
+			return Collections.emptyList();
+		}
+		return list;
+	}
+
+	private void build() {
+		map = new HashMap<String, List<Element>>();
+		unordered.clear();
+		removed.clear();
+		if (doc.getRootElement() != null) {
+			building = true;
+			try {
+				addTree(doc.getRootElement(), true);
+			} finally {
+				building = false;
+			}
+		}
+	}
+
+	private void compact() {
+		for (Map.Entry<String, Set<Element>> e : removed.entrySet()) {
+			final List<Element> list = map.get(e.getKey());
+			if (list != null && !e.getValue().isEmpty()) {
+				final List<Element> remaining = new ArrayList<Element>(list.size());
+				for (Element le : list) {
+					if (!e.getValue().contains(le)) {
+						remaining.add(le);
+					}
+				}
+				if (remaining.isEmpty() && !unordered.contains(e.getKey())) {
+					map.remove(e.getKey());
+				} else {
+					map.put(e.getKey(), remaining);
+				}
+			}
+		}
+		removed.clear();
+	}
+
+	private void reorder() {
+		for (String name : unordered) {
+			map.get(name).clear();
+		}
+		if (doc.getRootElement() != null) {
+			collect(doc.getRootElement());
+		}
+		for (String name : unordered) {
+			if (map.get(name).isEmpty()) {
+				map.remove(name);
+			}
+		}
+		unordered.clear();
+	}
+
+	private void collect(final Element element) {
+		if (unordered.contains(element.getName())) {
+			map.get(element.getName()).add(element);
+		}
+		for (int i = 0, n = element.nodeCount(); i < n; i++) {
+			final Node node = element.node(i);
+			if (node instanceof Element) {
+				collect((Element) node);
+			}
+		}
+	}
+
+	@Override
+	public void elementAdded(final Element element) {
+		if (map != null && !building) {
+			addTree(element, isLastInDocument(element));
+		}
+	}
+
+	@Override
+	public void elementRemoved(final Element element) {
+		if (map != null) {
+			collectRemoved(element);
+		}
+	}
+
+	@Override
+	public void nameChanged(final Element element, final String oldName) {
+		if (map != null) {
+			final List<Element> list = map.get(oldName);
+			if (list != null) {
+				list.remove(element);
+				if (list.isEmpty() && !unordered.contains(oldName)) {
+					map.remove(oldName);
+				}
+			}
+			// The descendants follow the element in document order.
+			add(element, element.elements().isEmpty() && isLastInDocument(element));
+		}
+	}
+
+	@Override
+	public void attributeChanged(final Element element, final String attributeName, final String oldValue,
+			final String newValue) {
+	}
+
+	@Override
+	public void childrenReordered(final Element parent) {
+		if (map != null) {
+			for (int i = 0, n = parent.nodeCount(); i < n; i++) {
+				final Node node = parent.node(i);
+				if (node instanceof Element) {
+					markUnordered((Element) node);
+				}
+			}
+		}
+	}
+
+	private void markUnordered(final Element element) {
+		unordered.add(element.getName());
+		for (int i = 0, n = element.nodeCount(); i < n; i++) {
+			final Node node = element.node(i);
+			if (node instanceof Element) {
+				markUnordered((Element) node);
+			}
+		}
+	}
+
+	private void addTree(final Element element, final boolean ordered) {
+		add(element, ordered);
+		for (int i = 0, n = element.nodeCount(); i < n; i++) {
+			final Node node = element.node(i);
+			if (node instanceof Element) {
+				addTree((Element) node, ordered);
+			}
+		}
+	}
+
+	private void add(final Element element, final boolean ordered) {
+		final String name = element.getName();
+		final Set<Element> set = removed.get(name);
+		if (set != null && set.remove(element)) { // moved: still in the list at its old position
+			unordered.add(name);
+			return;
+		}
+		List<Element> list = map.get(name);
+		if (list == null) {
+			list = new ArrayList<Element>();
+			map.put(name, list);
+		}
+		list.add(element);
+		if (!ordered) {
+			unordered.add(name);
+		}
+	}
+
+	private void collectRemoved(final Element element) {
+		Set<Element> set = removed.get(element.getName());
+		if (set == null) {
+			set = new HashSet<Element>();
+			removed.put(element.getName(), set);
+		}
+		set.add(element);
+		for (int i = 0, n = element.nodeCount(); i < n; i++) {
+			final Node node = element.node(i);
+			if (node instanceof Element) {
+				collectRemoved((Element) node);
+			}
+		}
+	}
+
+	/**
+	 * @return true if no element follows the given element and its descendants in document order
+	 */
+	private static boolean isLastInDocument(final Element element) {
+		Element e = element;
+		Element parent = e.getParent();
+		while (parent != null) {
+			for (int i = parent.nodeCount() - 1; i >= 0; i--) {
+				final Node node = parent.node(i);
+				if (node == e) {
+					break;
+				} else if (node instanceof Element) {
+					return false;
+				}
+			}
+			e = parent;
+			parent = e.getParent();
+		}
+		return true;
+	}
+}
@@ -0,0 +1,214 @@
+package de.mwvb.base.xml;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.dom4j.Attribute;
+import org.dom4j.Element;
+import org.dom4j.Node;
+import org.dom4j.QName;
+import org.dom4j.tree.DefaultElement;
+
+/**
+ * DOM4J element with an index of its child elements, so access to a child element by index is O(1).
+ * The index is built on first access and dropped on each structural change.
+ *
+ * <p>The additional field fits into the alignment gap of a DefaultElement object (64 bit JVM with compressed
+ * references), so these elements need no more memory than plain DOM4J elements.
+ * <p>When TrackingDocument.track() has replaced the elements of a document, changes of the old elements
+ * throw an IllegalStateException, so changes made using outdated XMLElement objects don't get lost.
+ *
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+class IndexedElement extends DefaultElement {
+	private static final long serialVersionUID = 1L;
+	/** marks an element replaced by TrackingDocument.track(), saves a field */
+	private static final ChildIndex REPLACED = new ChildIndex(Collections.emptyList());
+	/** null if not built or outdated */
+	private transient ChildIndex childIndex;
+
+	IndexedElement(final QName qname) {
+		super(qname);
+	}
+
+	/**
+	 * @return index of the child elements, will be built if necessary
+	 */
+	ChildIndex getChildIndex() {
+		checkNotReplaced();
+		if (childIndex == null) {
+			childIndex = new ChildIndex(contentList());
+		}
+		return childIndex;
+	}
+
+	/**
+	 * Inserts an element before the child element with the given index and updates the child index.
+	 *
+	 * @param index 0 based child element index, the number of child elements appends the element
+	 * @param e new element
+	 * @throws IndexOutOfBoundsException if index is negative or greater than the number of child elements
+	 */
+	@SuppressWarnings("unchecked")
+	void insertChild(final int index, final Element e) {
+		final ChildIndex ci = getChildIndex();
+		if (index < 0 || index > ci.size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", child elements: " + ci.size());
+		}
+		final int position = index < ci.size() ? ci.position(index) : nodeCount();
+		content().add(position, e); // drops childIndex
+		ci.inserted(index, e, position);
+		childIndex = ci;
+	}
+
+	/**
+	 * Reorders child elements in place. The other nodes (e.g. text) keep their positions, each moved element
+	 * takes the content position of the element it replaces.
+	 *
+	 * @param start 0 based child element index
+	 * @param newOrder permutation of the child elements start to start + newOrder.length - 1
+	 */
+	@SuppressWarnings("unchecked")
+	void reorderChildren(final int start, final Element[] newOrder) {
+		final ChildIndex ci = getChildIndex();
+		final List<Object> content = contentList(); // no facade: the elements stay children of this element
+		for (int i = 0; i < newOrder.length; i++) {
+			content.set(ci.position(start + i), newOrder[i]);
+		}
+		ci.replaced(start, newOrder);
+	}
+
+	/**
+	 * Marks this element and its descendants as replaced. From now on changes throw an IllegalStateException.
+	 */
+	void replaced() {
+		for (int i = 0, n = nodeCount(); i < n; i++) {
+			final Node node = node(i);
+			if (node instanceof IndexedElement) {
+				((IndexedElement) node).replaced();
+			}
+		}
+		childIndex = REPLACED;
+	}
+
+	private void checkNotReplaced() {
+		if (childIndex == REPLACED) {
+			throw new IllegalStateException("Element <" + getName() + "> is no longer part of its document. "
+					+ "Switching on the serialization cache or an index has replaced all elements. "
+					+ "Get the XMLElement from the document again or switch them on before loading.");
+		}
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	protected List contentList() {
+		checkNotReplaced();
+		return super.contentList();
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	protected List attributeList() {
+		checkNotReplaced();
+		return super.attributeList();
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	protected List attributeList(final int size) {
+		checkNotReplaced();
+		return super.attributeList(size);
+	}
+
+	@Override
+	protected void addNewNode(final Node node) {
+		checkNotReplaced();
+		super.addNewNode(node);
+	}
+
+	@Override
+	protected boolean removeNode(final Node node) {
+		checkNotReplaced();
+		return super.removeNode(node);
+	}
+
+	@Override
+	public Element addAttribute(final String name, final String value) {
+		checkNotReplaced();
+		return super.addAttribute(name, value);
+	}
+
+	@Override
+	public Element addAttribute(final QName qName, final String value) {
+		checkNotReplaced();
+		return super.addAttribute(qName, value);
+	}
+
+	@Override
+	public boolean remove(final Attribute attribute) {
+		checkNotReplaced();
+		return super.remove(attribute);
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public void setAttributes(final List attributes) {
+		checkNotReplaced();
+		super.setAttributes(attributes);
+	}
+
+	@Override
+	public void setQName(final QName name) {
+		checkNotReplaced();
+		super.setQName(name);
+		if (getParent() instanceof IndexedElement) {
+			((IndexedElement) getParent()).childIndex = null; // names of the child elements are indexed
+		}
+	}
+
+	@Override
+	protected void childAdded(final Node node) {
+		super.childAdded(node);
+		if (!(node instanceof Attribute)) {
+			childIndex = null;
+		}
+	}
+
+	@Override
+	protected void childRemoved(final Node node) {
+		super.childRemoved(node);
+		if (!(node instanceof Attribute)) {
+			childIndex = null;
+		}
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public void setContent(final List content) {
+		checkNotReplaced();
+		super.setContent(content);
+		childIndex = null;
+	}
+
+	@Override
+	public void clearContent() {
+		checkNotReplaced();
+		super.clearContent();
+		childIndex = null;
+	}
+
+	@Override
+	public void normalize() {
+		checkNotReplaced();
+		super.normalize();
+		childIndex = null;
+	}
+
+	@Override
+	public Object clone() {
+		final IndexedElement answer = (IndexedElement) super.clone();
+		answer.childIndex = null; // the index belongs to the original element
+		return answer;
+	}
+}
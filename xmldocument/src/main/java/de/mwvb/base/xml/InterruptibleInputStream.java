@@ -0,0 +1,38 @@
+package de.mwvb.base.xml;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * InputStream that stops reading if the current thread has been interrupted,
+ * e.g. by Future.cancel(true).
+ * 
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+class InterruptibleInputStream extends FilterInputStream {
+
+	InterruptibleInputStream(final InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		checkInterrupted();
+		return super.read();
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		checkInterrupted();
+		return super.read(b, off, len);
+	}
+
+	private void checkInterrupted() throws InterruptedIOException {
+		if (Thread.currentThread().isInterrupted()) {
+			throw new InterruptedIOException("XML loading has been cancelled");
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package de.mwvb.base.xml;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.dom4j.Element;
+import org.dom4j.Namespace;
+import org.dom4j.Node;
+import org.dom4j.ProcessingInstruction;
+import org.dom4j.QName;
+
+/**
+ * Element whose attributes are loaded but whose content is parsed on first access
+ * 
+ * <p>Concurrent reads are safe: the first access parses the content while holding the lock of this element,
+ * other threads wait for it. This includes namespace lookups, which DOM4J answers from the content. Like for any DOM4J tree, changes must not run concurrently with other accesses.
+ * 
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+class LazyElement extends TrackingElement {
+	private static final long serialVersionUID = 1L;
+	/** null if content has been loaded, is set to null after the content is complete */
+	private transient volatile LazyLoader source;
+	/** true while load() moves the parsed content into this element, guarded by this */
+	private transient boolean loading = false;
+	private final long offset;
+	private final long length;
+
+	LazyElement(final QName qname, final long offset, final long length) {
+		super(qname);
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * From now on the content will be loaded on first access.
+	 * 
+	 * @param source loader for the content
+	 */
+	void setSource(final LazyLoader source) {
+		this.source = source;
+	}
+
+	boolean isLoaded() {
+		return source == null;
+	}
+
+	@Override
+	void clearCachedXML() {
+		if (isLoaded()) {
+			super.clearCachedXML();
+		}
+	}
+
+	private void load() {
+		if (source != null) {
+			synchronized (this) {
+				final LazyLoader s = source;
+				if (s != null && !loading) { // loading: called again by moveContent()
+					loading = true;
+					try {
+						final Element e = s.parseElement(offset, length);
+						// Replace namespace declarations of the start tag by the complete content.
+						super.clearContent();
+						moveContent(e, this);
+						source = null;
+					} finally {
+						loading = false;
+					}
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	static void moveContent(final Element from, final Element to) {
+		final List<?> nodes = new ArrayList<Object>(from.content());
+		from.clearContent();
+		for (Object node : nodes) {
+			to.add((Node) node);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	protected List contentList() {
+		load();
+		return super.contentList();
+	}
+
+	@Override
+	protected boolean removeNode(final Node node) {
+		load();
+		return super.removeNode(node);
+	}
+
+	@Override
+	protected void addNewNode(final Node node) {
+		load();
+		super.addNewNode(node);
+	}
+
+	@Override
+	public Element element(final QName qName) {
+		load();
+		return super.element(qName);
+	}
+
+	@Override
+	public Element element(final String name) {
+		load();
+		return super.element(name);
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public Iterator nodeIterator() {
+		load();
+		return super.nodeIterator();
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public List processingInstructions() {
+		load();
+		return super.processingInstructions();
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public List processingInstructions(final String target) {
+		load();
+		return super.processingInstructions(target);
+	}
+
+	@Override
+	public ProcessingInstruction processingInstruction(final String target) {
+		load();
+		return super.processingInstruction(target);
+	}
+
+	@Override
+	public boolean removeProcessingInstruction(final String target) {
+		load();
+		return super.removeProcessingInstruction(target);
+	}
+
+	@Override
+	public Node node(final int index) {
+		load();
+		return super.node(index);
+	}
+
+	@Override
+	public int indexOf(final Node node) {
+		load();
+		return super.indexOf(node);
+	}
+
+	@Override
+	public int nodeCount() {
+		load();
+		return super.nodeCount();
+	}
+
+	@Override
+	public Namespace getNamespaceForPrefix(final String prefix) {
+		load();
+		return super.getNamespaceForPrefix(prefix);
+	}
+
+	@Override
+	public Namespace getNamespaceForURI(final String uri) {
+		load();
+		return super.getNamespaceForURI(uri);
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public List declaredNamespaces() {
+		load();
+		return super.declaredNamespaces();
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public List additionalNamespaces() {
+		load();
+		return super.additionalNamespaces();
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public List additionalNamespaces(final String defaultNamespaceURI) {
+		load();
+		return super.additionalNamespaces(defaultNamespaceURI);
+	}
+
+	@Override
+	public String getText() {
+		load();
+		return super.getText();
+	}
+
+	@Override
+	public String getStringValue() {
+		load();
+		return super.getStringValue();
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public void setContent(final List content) {
+		source = null;
+		super.setContent(content);
+	}
+
+	@Override
+	public void clearContent() {
+		source = null;
+		super.clearContent();
+	}
+
+	@Override
+	public Object clone() {
+		load();
+		return super.clone();
+	}
+}
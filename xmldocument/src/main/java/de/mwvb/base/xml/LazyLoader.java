@@ -0,0 +1,518 @@
+package de.mwvb.base.xml;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentFactory;
+import org.dom4j.Element;
+import org.dom4j.Namespace;
+import org.dom4j.Node;
+import org.dom4j.io.SAXReader;
+
+/**
+ * Loads a XML file lazily.
+ * 
+ * <p>A fast pre-scan of the bytes finds the children of the root element. Only a skeleton document
+ * containing the root element and the start tags of its children is parsed. The children become
+ * LazyElements which parse their byte range of the file on first access of their content.
+ * The byte range is parsed together with the XML declaration and the root start tag,
+ * so encoding and namespace declarations are the same as for the whole file.
+ * 
+ * <p>The same pre-scan is used for parallel loading: the content of the root element is split before
+ * a child element into chunks of some MB. Each chunk is parsed by the executor as soon as the scan has found
+ * its end. The nodes of the chunks are appended to the root element in document order.
+ * 
+ * <p>Lazy and parallel loading are not possible for files with DOCTYPE (entities) and for UTF-16 files.
+ * 
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+class LazyLoader {
+	private final File file;
+	/** TrackingDocumentFactory.INSTANCE for lazy loading, PLAIN or INSTANCE for parallel loading */
+	private final DocumentFactory factory;
+	/** bytes from file start up to the end of the root start tag */
+	private byte[] header;
+	/** root end tag */
+	private byte[] footer;
+
+	private LazyLoader(final File file, final DocumentFactory factory) {
+		this.file = file;
+		this.factory = factory;
+	}
+
+	/**
+	 * @param file XML file
+	 * @return document with LazyElements, or null if lazy loading is not possible for that file
+	 */
+	static Document load(final File file) throws Exception {
+		return new LazyLoader(file, TrackingDocumentFactory.INSTANCE).load();
+	}
+
+	/**
+	 * @param file XML file
+	 * @param executor executor that parses the chunks
+	 * @param chunkSize minimum number of bytes per chunk
+	 * @param factory TrackingDocumentFactory.PLAIN or INSTANCE
+	 * @return complete document, or null if parallel loading is not possible for that file
+	 */
+	static Document loadParallel(final File file, final ExecutorService executor, final int chunkSize,
+			final DocumentFactory factory) throws Exception {
+		return new LazyLoader(file, factory).loadParallel(executor, chunkSize);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Document load() throws Exception {
+		final ByteArrayOutputStream skeleton = new ByteArrayOutputStream();
+		final List<long[]> ranges = new ArrayList<long[]>(); // null for complete children
+		final Scanner s = new Scanner(new FileInputStream(file));
+		try {
+			if (!s.isAsciiCompatible() || !scanProlog(s, skeleton)) {
+				return null;
+			}
+			header = skeleton.toByteArray();
+			scanChildren(s, skeleton, ranges);
+			s.copyRest(skeleton);
+		} finally {
+			s.close();
+		}
+		final Document doc = new SAXReader(factory).read(new ByteArrayInputStream(skeleton.toByteArray()));
+		final Element root = doc.getRootElement();
+		final List<?> content = root.content();
+		int child = 0;
+		for (int i = 0; i < content.size(); i++) {
+			if (content.get(i) instanceof Element) {
+				final long[] range = ranges.get(child++);
+				if (range != null) {
+					final Element placeholder = (Element) content.get(i);
+					final LazyElement lazy = new LazyElement(placeholder.getQName(), range[0], range[1]);
+					for (int a = 0; a < placeholder.attributeCount(); a++) {
+						lazy.addAttribute(placeholder.attribute(a).getQName(), placeholder.attribute(a).getValue());
+					}
+					LazyElement.moveContent(placeholder, lazy); // namespace declarations
+					lazy.setSource(this);
+					root.content().set(i, lazy);
+				}
+			}
+		}
+		return doc;
+	}
+
+	private Document loadParallel(final ExecutorService executor, final int chunkSize) throws Exception {
+		final ByteArrayOutputStream skeleton = new ByteArrayOutputStream();
+		final List<Future<List<Node>>> chunks = new ArrayList<Future<List<Node>>>();
+		try {
+			final Scanner s = new Scanner(new FileInputStream(file));
+			try {
+				if (!s.isAsciiCompatible() || !scanProlog(s, skeleton)) {
+					return null;
+				}
+				header = skeleton.toByteArray();
+				scanChunks(s, executor, chunkSize, chunks);
+				skeleton.write(footer);
+				s.copyUntil(">", null); // root end tag
+				s.copyRest(skeleton);
+			} finally {
+				s.close();
+			}
+			final Document doc = new SAXReader(factory).read(new ByteArrayInputStream(skeleton.toByteArray()));
+			final Element root = doc.getRootElement();
+			for (Future<List<Node>> chunk : chunks) {
+				for (Node node : chunk.get()) {
+					node.setParent(null);
+					root.add(node);
+				}
+			}
+			return doc;
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		} finally {
+			for (Future<List<Node>> chunk : chunks) {
+				chunk.cancel(true); // no-op for completed chunks
+			}
+		}
+	}
+
+	/**
+	 * Splits the content of the root element into chunks and submits them for parsing.
+	 * A chunk starts at the first child element beginning chunkSize bytes after the chunk start.
+	 * So text is never split.
+	 */
+	private void scanChunks(final Scanner s, final ExecutorService executor, final int chunkSize,
+			final List<Future<List<Node>>> chunks) throws IOException {
+		long start = s.position();
+		while (true) {
+			s.copyUntil('<', null);
+			if (s.peek(0) < 0) {
+				throw new IOException("Unexpected end of file, missing root end tag");
+			} else if (s.startsWith("</")) {
+				chunks.add(submit(executor, start, s.position() - start));
+				return;
+			} else if (s.startsWith("<?")) {
+				s.copyUntil("?>", null);
+			} else if (s.startsWith("<!--")) {
+				s.copyUntil("-->", null);
+			} else if (s.startsWith("<![CDATA[")) {
+				s.copyUntil("]]>", null);
+			} else {
+				final long pos = s.position();
+				if (pos - start >= chunkSize) {
+					chunks.add(submit(executor, start, pos - start));
+					start = pos;
+				}
+				if (!s.scanTag(null)) {
+					s.skipElementContent();
+				}
+			}
+		}
+	}
+
+	private Future<List<Node>> submit(final ExecutorService executor, final long offset, final long length) {
+		return executor.submit(new Callable<List<Node>>() {
+			@Override
+			public List<Node> call() {
+				return parseContent(offset, length);
+			}
+		});
+	}
+
+	/**
+	 * Copies XML declaration, comments, PIs and root start tag to skeleton.
+	 * 
+	 * @return false if lazy loading is not possible
+	 */
+	private boolean scanProlog(final Scanner s, final ByteArrayOutputStream skeleton) throws IOException {
+		while (true) {
+			s.copyUntil('<', skeleton);
+			if (s.peek(0) < 0) {
+				return false;
+			} else if (s.startsWith("<?")) {
+				s.copyUntil("?>", skeleton);
+			} else if (s.startsWith("<!--")) {
+				s.copyUntil("-->", skeleton);
+			} else if (s.startsWith("<!")) {
+				return false; // DOCTYPE
+			} else {
+				final byte[] tag = s.readTag();
+				skeleton.write(tag);
+				if (tag[tag.length - 2] == '/') {
+					return false; // empty root element
+				}
+				footer = endTag(tag);
+				return true;
+			}
+		}
+	}
+
+	private void scanChildren(final Scanner s, final ByteArrayOutputStream skeleton, final List<long[]> ranges)
+			throws IOException {
+		while (true) {
+			s.copyUntil('<', skeleton);
+			if (s.peek(0) < 0 || s.startsWith("</")) {
+				return;
+			} else if (s.startsWith("<?")) {
+				s.copyUntil("?>", skeleton);
+			} else if (s.startsWith("<!--")) {
+				s.copyUntil("-->", skeleton);
+			} else if (s.startsWith("<![CDATA[")) {
+				s.copyUntil("]]>", skeleton);
+			} else {
+				final long start = s.position();
+				final byte[] tag = s.readTag();
+				skeleton.write(tag);
+				if (tag[tag.length - 2] == '/') {
+					ranges.add(null);
+				} else {
+					skeleton.write(endTag(tag));
+					s.skipElementContent();
+					ranges.add(new long[] { start, s.position() - start });
+				}
+			}
+		}
+	}
+
+	/** @return end tag for given start tag */
+	private static byte[] endTag(final byte[] startTag) {
+		int end = 1;
+		while (end < startTag.length && startTag[end] > ' ' && startTag[end] != '>' && startTag[end] != '/') {
+			end++;
+		}
+		final ByteArrayOutputStream ret = new ByteArrayOutputStream();
+		ret.write('<');
+		ret.write('/');
+		ret.write(startTag, 1, end - 1);
+		ret.write('>');
+		return ret.toByteArray();
+	}
+
+	/**
+	 * Parses a child element of the root element.
+	 * 
+	 * @param offset byte position in file
+	 * @param length number of bytes
+	 * @return detached element
+	 */
+	Element parseElement(final long offset, final long length) {
+		for (Node node : parseContent(offset, length)) {
+			if (node instanceof Element) {
+				return (Element) node;
+			}
+		}
+		throw new IllegalStateException("No element found");
+	}
+
+	/**
+	 * Parses a part of the content of the root element.
+	 * 
+	 * @param offset byte position in file
+	 * @param length number of bytes, can be more than 2 GB
+	 * @return nodes without the namespace declarations of the root element, their parent is a temporary root element
+	 */
+	private List<Node> parseContent(final long offset, final long length) {
+		try {
+			final Document doc;
+			final FileInputStream in = new FileInputStream(file);
+			try {
+				in.getChannel().position(offset);
+				// header + range + footer without copying the range into an array
+				doc = new SAXReader(factory).read(new SequenceInputStream(new SequenceInputStream(
+						new ByteArrayInputStream(header), new RangeInputStream(new BufferedInputStream(in), length)),
+						new ByteArrayInputStream(footer)));
+			} finally {
+				in.close();
+			}
+			final List<Node> ret = new ArrayList<Node>();
+			for (Object node : doc.getRootElement().content()) {
+				if (!(node instanceof Namespace)) {
+					ret.add((Node) node);
+				}
+			}
+			return ret;
+		} catch (Exception e) {
+			throw new RuntimeException("Error loading XML element from file '" + file + "'!", e);
+		}
+	}
+
+	/**
+	 * Reads at most the given number of bytes
+	 */
+	private static class RangeInputStream extends FilterInputStream {
+		private long remaining;
+
+		RangeInputStream(final InputStream in, final long length) {
+			super(in);
+			remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			final int ret = super.read();
+			if (ret >= 0) {
+				remaining--;
+			}
+			return ret;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			final int ret = super.read(b, off, (int) Math.min(len, remaining));
+			if (ret > 0) {
+				remaining -= ret;
+			}
+			return ret;
+		}
+
+		@Override
+		public long skip(final long n) throws IOException {
+			final long ret = super.skip(Math.min(n, remaining));
+			remaining -= ret;
+			return ret;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(super.available(), remaining);
+		}
+	}
+
+	/**
+	 * Byte scanner with lookahead
+	 */
+	private static class Scanner {
+		private final InputStream in;
+		private final byte[] buf = new byte[64 * 1024];
+		private int pos = 0;
+		private int len = 0;
+		/** file position of buf[0] */
+		private long base = 0;
+
+		Scanner(final InputStream in) {
+			this.in = in;
+		}
+
+		long position() {
+			return base + pos;
+		}
+
+		/** @return byte at pos + k, -1 at end of file */
+		int peek(final int k) throws IOException {
+			if (pos + k >= len) {
+				if (pos > 0) {
+					System.arraycopy(buf, pos, buf, 0, len - pos);
+					base += pos;
+					len -= pos;
+					pos = 0;
+				}
+				while (k >= len) {
+					final int n = in.read(buf, len, buf.length - len);
+					if (n < 0) {
+						return -1;
+					}
+					len += n;
+				}
+			}
+			return buf[pos + k] & 0xFF;
+		}
+
+		boolean startsWith(final String s) throws IOException {
+			for (int i = 0; i < s.length(); i++) {
+				if (peek(i) != s.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		boolean isAsciiCompatible() throws IOException {
+			final int b0 = peek(0);
+			final int b1 = peek(1);
+			if (b0 == 0xEF && b1 == 0xBB && peek(2) == 0xBF) {
+				pos += 3; // UTF-8 BOM
+				return true;
+			}
+			return b0 != 0 && b1 != 0 && b0 != 0xFE && b0 != 0xFF;
+		}
+
+		/** Copies bytes until c (exclusive) or end of file. out can be null for skipping. */
+		void copyUntil(final int c, final ByteArrayOutputStream out) throws IOException {
+			int b;
+			while ((b = peek(0)) >= 0 && b != c) {
+				if (out != null) {
+					out.write(b);
+				}
+				pos++;
+			}
+		}
+
+		/** Copies bytes until end (inclusive). out can be null for skipping. */
+		void copyUntil(final String end, final ByteArrayOutputStream out) throws IOException {
+			while (!startsWith(end)) {
+				final int b = peek(0);
+				if (b < 0) {
+					throw new IOException("Unexpected end of file, missing " + end);
+				}
+				if (out != null) {
+					out.write(b);
+				}
+				pos++;
+			}
+			for (int i = 0; i < end.length(); i++) {
+				if (out != null) {
+					out.write(peek(0));
+				}
+				pos++;
+			}
+		}
+
+		void copyRest(final ByteArrayOutputStream out) throws IOException {
+			while (peek(0) >= 0) {
+				out.write(buf, pos, len - pos);
+				pos = len;
+			}
+		}
+
+		/** Reads start tag incl. '&lt;' and '&gt;'. Quoted attribute values may contain '&gt;'. */
+		byte[] readTag() throws IOException {
+			final ByteArrayOutputStream tag = new ByteArrayOutputStream();
+			scanTag(tag);
+			return tag.toByteArray();
+		}
+
+		/**
+		 * @param out null for skipping
+		 * @return true if it is an empty element tag ("/&gt;")
+		 */
+		boolean scanTag(final ByteArrayOutputStream out) throws IOException {
+			int quote = 0;
+			int last = 0;
+			while (true) {
+				final int b = peek(0);
+				if (b < 0) {
+					throw new IOException("Unexpected end of file in tag");
+				}
+				if (out != null) {
+					out.write(b);
+				}
+				pos++;
+				if (quote != 0) {
+					if (b == quote) {
+						quote = 0;
+					}
+				} else if (b == '"' || b == '\'') {
+					quote = b;
+				} else if (b == '>') {
+					return last == '/';
+				}
+				last = b;
+			}
+		}
+
+		/** Skips content and end tag of an element whose start tag has been read. */
+		void skipElementContent() throws IOException {
+			int depth = 1;
+			while (depth > 0) {
+				final int b = peek(0);
+				if (b < 0) {
+					throw new IOException("Unexpected end of file in element");
+				} else if (b != '<') {
+					pos++;
+				} else if (startsWith("</")) {
+					depth--;
+					copyUntil(">", null);
+				} else if (startsWith("<!--")) {
+					copyUntil("-->", null);
+				} else if (startsWith("<![CDATA[")) {
+					copyUntil("]]>", null);
+				} else if (startsWith("<?")) {
+					copyUntil("?>", null);
+				} else if (!scanTag(null)) {
+					depth++;
+				}
+			}
+		}
+
+		void close() throws IOException {
+			in.close();
+		}
+	}
+}
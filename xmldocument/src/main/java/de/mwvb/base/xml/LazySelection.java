@@ -0,0 +1,290 @@
+package de.mwvb.base.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.dom4j.Branch;
+import org.dom4j.Element;
+import org.dom4j.Node;
+import org.dom4j.xpath.XPathPattern;
+import org.jaxen.JaxenException;
+import org.jaxen.dom4j.Dom4jXPath;
+import org.jaxen.expr.EqualityExpr;
+import org.jaxen.expr.Expr;
+import org.jaxen.expr.FunctionCallExpr;
+import org.jaxen.expr.LocationPath;
+import org.jaxen.expr.LogicalExpr;
+import org.jaxen.expr.Predicate;
+import org.jaxen.expr.RelationalExpr;
+import org.jaxen.expr.Step;
+
+/**
+ * XPath selection whose result elements are found one after another while iterating
+ *
+ * <p>Expressions of kind "//step", ".//step" and "descendant::step" are evaluated by walking through
+ * the descendants in document order and matching each element against the step. So the walk stops
+ * as soon as the caller stops iterating. The step must be an element name or "*" with optional
+ * predicates. Each predicate must be boolean-typed: a comparison, "and", "or", a boolean function like not()
+ * or an existence test like [@id]. Predicates must not use position() or last() and must not contain "/",
+ * variables or namespace prefixes. Other predicates, e.g. [1], [count(b)] or [number(@n)], select by position.
+ * <p>All other expressions are evaluated completely by Jaxen, but the XMLElement wrappers are created lazily.
+ * <p>The document must not be changed during the iteration.
+ *
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+class LazySelection implements Iterable<XMLElement> {
+	private static final Pattern STEP = Pattern.compile("(\\*|[A-Za-z_][\\w.\\-]*)(\\[.*\\])?");
+	private static final Pattern POSITION_FUNCTIONS = Pattern.compile("position\\s*\\(|last\\s*\\(");
+	private static final Set<String> BOOLEAN_FUNCTIONS = new HashSet<String>(Arrays.asList("not", "true", "false",
+			"boolean", "contains", "starts-with", "ends-with", "lang"));
+	private final Node context;
+	private final String xpath;
+	/** start node of the walk, null if the expression is evaluated by Jaxen */
+	private final Branch start;
+	private final XPathPattern pattern;
+
+	LazySelection(final Node context, final String xpath) {
+		this.context = context;
+		this.xpath = xpath;
+		final String step = getStep(xpath, false);
+		start = step == null ? null : getStart(context, xpath);
+		pattern = start == null ? null : new XPathPattern(step);
+	}
+
+	/**
+	 * Constructor for subclasses which evaluate the expression themselves
+	 * 
+	 * @param xpath XPath expression, only used for XMLMonitor
+	 * @param start start node of the walk, null if selectAll() must be used
+	 */
+	LazySelection(final String xpath, final Branch start) {
+		context = null;
+		this.xpath = xpath;
+		this.start = start;
+		pattern = null;
+	}
+
+	/**
+	 * @param xpath XPath expression
+	 * @param variables true if the step may contain variable references
+	 * @return step if xpath is a descendant search with a simple step, otherwise null
+	 */
+	static String getStep(final String xpath, final boolean variables) {
+		final String x = xpath.trim();
+		final String step;
+		if (x.startsWith("//")) {
+			step = x.substring(2);
+		} else if (x.startsWith(".//")) {
+			step = x.substring(3);
+		} else if (x.startsWith("descendant::")) {
+			step = x.substring("descendant::".length());
+		} else {
+			return null;
+		}
+		if (STEP.matcher(step).matches() && step.indexOf('/') < 0 && step.indexOf('|') < 0
+				&& step.indexOf(':') < 0 && (variables || step.indexOf('$') < 0)
+				&& !POSITION_FUNCTIONS.matcher(step).find() && hasBooleanPredicates(step)) {
+			return step;
+		}
+		return null;
+	}
+
+	/**
+	 * @param step element name or "*" with optional predicates
+	 * @return true if all predicates are boolean-typed, i.e. don't select by position
+	 */
+	private static boolean hasBooleanPredicates(final String step) {
+		if (step.indexOf('[') < 0) {
+			return true;
+		}
+		final Expr expr;
+		try {
+			expr = new Dom4jXPath("self::" + step).getRootExpr();
+		} catch (JaxenException e) {
+			return false; // Jaxen will report the error
+		}
+		if (!(expr instanceof LocationPath) || ((LocationPath) expr).getSteps().size() != 1) {
+			return false;
+		}
+		for (Object predicate : ((Step) ((LocationPath) expr).getSteps().get(0)).getPredicates()) {
+			if (!isBoolean(((Predicate) predicate).getExpr())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param expr predicate expression
+	 * @return true if the expression is a comparison, "and", "or", a boolean function or a node-set
+	 */
+	private static boolean isBoolean(final Expr expr) {
+		if (expr instanceof FunctionCallExpr) {
+			return BOOLEAN_FUNCTIONS.contains(((FunctionCallExpr) expr).getFunctionName());
+		}
+		return expr instanceof EqualityExpr || expr instanceof RelationalExpr || expr instanceof LogicalExpr
+				|| expr instanceof LocationPath;
+	}
+
+	/**
+	 * @param context context node
+	 * @param xpath XPath expression for which getStep() returns a step
+	 * @return start node of the walk, can be null
+	 */
+	static Branch getStart(final Node context, final String xpath) {
+		return xpath.trim().startsWith("//") ? context.getDocument() : (Branch) context;
+	}
+
+	/**
+	 * Evaluates the expression completely. Is called if there's no start node.
+	 * 
+	 * @return nodes
+	 */
+	protected List<?> selectAll() {
+		return context.selectNodes(xpath);
+	}
+
+	/**
+	 * Is called for each descendant element of the start node.
+	 * 
+	 * @param e element
+	 * @return true if the element is a result element
+	 */
+	protected boolean matches(final Element e) {
+		return pattern.matches(e);
+	}
+
+	@Override
+	public Iterator<XMLElement> iterator() {
+		final Iterator<Element> elements = elements();
+		return new Iterator<XMLElement>() {
+			@Override
+			public boolean hasNext() {
+				return elements.hasNext();
+			}
+
+			@Override
+			public XMLElement next() {
+				return XMLElementImpl.create(elements.next());
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * @return true if there's at least one result element
+	 */
+	boolean exists() {
+		final Object token = XMLMonitor.startQuery(xpath);
+		final boolean ret = elements().hasNext();
+		XMLMonitor.finishQuery(token, xpath, ret ? 1 : 0);
+		return ret;
+	}
+
+	/**
+	 * @return number of result elements
+	 */
+	int count() {
+		final Object token = XMLMonitor.startQuery(xpath);
+		int ret = 0;
+		if (start == null) {
+			ret = selectAll().size();
+		} else {
+			for (Iterator<Element> iter = elements(); iter.hasNext(); iter.next()) {
+				ret++;
+			}
+		}
+		XMLMonitor.finishQuery(token, xpath, ret);
+		return ret;
+	}
+
+	/**
+	 * @param n maximum number of elements
+	 * @return first n result elements
+	 */
+	List<XMLElement> first(final int n) {
+		final Object token = XMLMonitor.startQuery(xpath);
+		final List<XMLElement> ret = new ArrayList<XMLElement>();
+		for (Iterator<XMLElement> iter = iterator(); ret.size() < n && iter.hasNext();) {
+			ret.add(iter.next());
+		}
+		XMLMonitor.finishQuery(token, xpath, ret.size());
+		return ret;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Iterator<Element> elements() {
+		if (start == null) {
+			return ((List<Element>) selectAll()).iterator();
+		}
+		return new WalkIterator(start);
+	}
+
+	/**
+	 * Walks through the descendants of the start node in document order and returns the matching elements.
+	 */
+	private class WalkIterator implements Iterator<Element> {
+		/** Parents of the current position */
+		private final List<Branch> branches = new ArrayList<Branch>();
+		/** Index of the next node to visit for each entry of branches */
+		private final List<Integer> positions = new ArrayList<Integer>();
+		private Element next;
+
+		WalkIterator(final Branch start) {
+			if (start != null) {
+				branches.add(start);
+				positions.add(Integer.valueOf(0));
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null && !branches.isEmpty()) {
+				final int last = branches.size() - 1;
+				final Branch branch = branches.get(last);
+				final int i = positions.get(last).intValue();
+				if (i >= branch.nodeCount()) {
+					branches.remove(last);
+					positions.remove(last);
+					continue;
+				}
+				positions.set(last, Integer.valueOf(i + 1));
+				final Node node = branch.node(i);
+				if (node instanceof Element) {
+					branches.add((Element) node);
+					positions.add(Integer.valueOf(0));
+					if (matches((Element) node)) {
+						next = (Element) node;
+					}
+				}
+			}
+			return next != null;
+		}
+
+		@Override
+		public Element next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			final Element ret = next;
+			next = null;
+			return ret;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package de.mwvb.base.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+
+/**
+ * Simple path pattern for streaming processing, matched against the stack of open elements
+ * 
+ * <p>Syntax: "/a/b" (absolute), "//b" or "//a/b" (at any depth). A step is an element name or "*",
+ * optionally followed by one predicate "[@attr]" or "[@attr='value']".
+ * 
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+class StreamPath {
+	private final String pattern;
+	private final boolean anyDepth;
+	private final List<Step> steps = new ArrayList<Step>();
+
+	private static class Step {
+		String name;
+		String attributeName;
+		String attributeValue;
+
+		boolean matches(final StartElement e) {
+			if (!"*".equals(name) && !name.equals(e.getName().getLocalPart())) {
+				return false;
+			}
+			if (attributeName != null) {
+				final Attribute attr = e.getAttributeByName(new javax.xml.namespace.QName(attributeName));
+				return attr != null && (attributeValue == null || attributeValue.equals(attr.getValue()));
+			}
+			return true;
+		}
+	}
+
+	StreamPath(final String pattern) {
+		this.pattern = pattern;
+		String p;
+		if (pattern.startsWith("//")) {
+			anyDepth = true;
+			p = pattern.substring(2);
+		} else if (pattern.startsWith("/")) {
+			anyDepth = false;
+			p = pattern.substring(1);
+		} else {
+			throw new IllegalArgumentException("Path must start with '/' or '//': " + pattern);
+		}
+		for (String s : p.split("/")) {
+			steps.add(parseStep(s.trim()));
+		}
+	}
+
+	private Step parseStep(final String s) {
+		final Step step = new Step();
+		final int o = s.indexOf('[');
+		step.name = o < 0 ? s : s.substring(0, o);
+		if (step.name.length() == 0) {
+			throw new IllegalArgumentException("Path step without name: " + pattern);
+		}
+		if (o >= 0) {
+			if (!s.endsWith("]") || s.charAt(o + 1) != '@') {
+				throw new IllegalArgumentException("Unsupported predicate in path: " + pattern);
+			}
+			final String predicate = s.substring(o + 2, s.length() - 1);
+			final int eq = predicate.indexOf('=');
+			if (eq < 0) {
+				step.attributeName = predicate.trim();
+			} else {
+				step.attributeName = predicate.substring(0, eq).trim();
+				final String value = predicate.substring(eq + 1).trim();
+				if (value.length() < 2 || value.charAt(0) != value.charAt(value.length() - 1)
+						|| (value.charAt(0) != '\'' && value.charAt(0) != '"')) {
+					throw new IllegalArgumentException("Attribute value in path must be quoted: " + pattern);
+				}
+				step.attributeValue = value.substring(1, value.length() - 1);
+			}
+		}
+		return step;
+	}
+
+	/**
+	 * @param stack open elements, the last one is the current element
+	 * @return true if current element matches the pattern
+	 */
+	boolean matches(final List<StartElement> stack) {
+		final int n = steps.size();
+		if (anyDepth ? stack.size() < n : stack.size() != n) {
+			return false;
+		}
+		final int offset = stack.size() - n;
+		for (int i = n - 1; i >= 0; i--) {
+			if (!steps.get(i).matches(stack.get(offset + i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return pattern;
+	}
+}
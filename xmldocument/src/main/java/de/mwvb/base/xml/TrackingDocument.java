@@ -0,0 +1,113 @@
+package de.mwvb.base.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dom4j.Element;
+import org.dom4j.tree.DefaultDocument;
+
+/**
+ * DOM4J document holding the settings of the XMLDocument optimizations
+ * 
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+class TrackingDocument extends DefaultDocument {
+	private static final long serialVersionUID = 1L;
+	private boolean serializationCache = false;
+	/** null if there are no listeners */
+	private transient List<TrackingListener> listeners;
+	/** null if element name index is off */
+	private transient ElementNameIndex nameIndex;
+
+	boolean isSerializationCache() {
+		return serializationCache;
+	}
+
+	void setSerializationCache(final boolean serializationCache) {
+		if (serializationCache) {
+			track();
+		}
+		this.serializationCache = serializationCache;
+		if (!serializationCache && getRootElement() instanceof TrackingElement) {
+			((TrackingElement) getRootElement()).clearCachedXML();
+		}
+	}
+
+	/**
+	 * @return null if there are no listeners
+	 */
+	List<TrackingListener> getListeners() {
+		return listeners;
+	}
+
+	void addListener(final TrackingListener listener) {
+		if (listeners == null) {
+			listeners = new ArrayList<TrackingListener>();
+		}
+		listeners.add(listener);
+	}
+
+	void removeListener(final TrackingListener listener) {
+		if (listeners != null) {
+			listeners.remove(listener);
+			if (listeners.isEmpty()) {
+				listeners = null;
+			}
+		}
+	}
+
+	/**
+	 * @return null if element name index is off
+	 */
+	ElementNameIndex getNameIndex() {
+		return nameIndex;
+	}
+
+	void setNameIndex(final boolean on) {
+		if (on && nameIndex == null) {
+			track();
+			nameIndex = new ElementNameIndex(this);
+			addListener(nameIndex);
+		} else if (!on && nameIndex != null) {
+			removeListener(nameIndex);
+			nameIndex = null;
+		}
+	}
+
+	/**
+	 * Replaces plain elements by TrackingElements, which are needed by the serialization cache and the indexes.
+	 * The tree is copied once, later changes create TrackingElements. XMLElement objects obtained before
+	 * refer to the old elements, which are no longer part of this document. Changing them throws an
+	 * IllegalStateException. XMLDocument avoids the copy by loading TrackingElements if one of the optimizations
+	 * is switched on before loading.
+	 */
+	@SuppressWarnings("unchecked")
+	void track() {
+		final Element root = getRootElement();
+		if (root == null || root instanceof TrackingElement) {
+			return;
+		}
+		setDocumentFactory(TrackingDocumentFactory.INSTANCE);
+		final List<Object> content = new ArrayList<Object>(content());
+		content.set(content.indexOf(root), TrackingDocumentFactory.copy(root, TrackingDocumentFactory.INSTANCE));
+		setContent(content);
+		if (root instanceof IndexedElement) {
+			((IndexedElement) root).replaced();
+		}
+	}
+
+	@Override
+	public Object clone() {
+		final TrackingDocument answer = (TrackingDocument) super.clone();
+		answer.listeners = null; // listeners belong to the original document
+		answer.nameIndex = null;
+		answer.setNameIndex(nameIndex != null);
+		return answer;
+	}
+
+	@Override
+	public String asXML() {
+		return serializationCache ? CachingXMLWriter.asXML(this) : super.asXML();
+	}
+}
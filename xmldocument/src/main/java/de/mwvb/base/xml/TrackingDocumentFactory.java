@@ -0,0 +1,246 @@
+package de.mwvb.base.xml;
+
+import java.io.StringReader;
+import java.util.StringTokenizer;
+
+import org.dom4j.Attribute;
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentFactory;
+import org.dom4j.Element;
+import org.dom4j.Node;
+import org.dom4j.QName;
+import org.dom4j.io.SAXContentHandler;
+import org.dom4j.io.SAXReader;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * DOM4J DocumentFactory creating the TrackingDocument holding the settings of the XMLDocument optimizations.
+ * All XMLDocument load methods use this factory.
+ * <p>PLAIN creates DOM4J elements with a child index only. INSTANCE creates elements which know when they have been changed,
+ * they are needed by the serialization cache and the indexes. XMLDocument loads using INSTANCE if one of these
+ * is switched on before loading, a loaded document is converted by TrackingDocument.track(). Lazy loading always
+ * uses INSTANCE.
+ * <p>Each element uses the factory of its QName for new child elements, so a document does not mix both kinds.
+ * 
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+class TrackingDocumentFactory extends DocumentFactory {
+	private static final long serialVersionUID = 1L;
+	/** creates TrackingElements */
+	static final TrackingDocumentFactory INSTANCE = new TrackingDocumentFactory(true);
+	/** creates IndexedElements */
+	static final TrackingDocumentFactory PLAIN = new TrackingDocumentFactory(false);
+	private final boolean tracking;
+
+	private TrackingDocumentFactory(final boolean tracking) {
+		this.tracking = tracking;
+	}
+
+	@Override
+	public Document createDocument() {
+		final TrackingDocument doc = new TrackingDocument();
+		doc.setDocumentFactory(this);
+		return doc;
+	}
+
+	@Override
+	public Element createElement(final QName qname) {
+		return tracking ? new TrackingElement(qname) : new IndexedElement(qname);
+	}
+
+	/**
+	 * @param e element
+	 * @return factory that creates the same kind of elements as the given element does for new children
+	 */
+	static DocumentFactory of(final Element e) {
+		final DocumentFactory factory = e.getQName().getDocumentFactory();
+		if (factory == null) {
+			return e instanceof TrackingElement ? INSTANCE : PLAIN;
+		}
+		return factory;
+	}
+
+	/**
+	 * Deep copy of an element whose elements are created by the given factory
+	 * 
+	 * @param e element, will not be changed
+	 * @param factory DocumentFactory for the elements and names of the copy
+	 * @return detached copy
+	 */
+	static Element copy(final Element e, final DocumentFactory factory) {
+		final Element ret = factory.createElement(qname(e.getQName(), factory));
+		for (int i = 0; i < e.attributeCount(); i++) {
+			final Attribute a = e.attribute(i);
+			ret.add(factory.createAttribute(ret, qname(a.getQName(), factory), a.getValue()));
+		}
+		for (Object node : e.content()) {
+			if (node instanceof Element) {
+				ret.add(copy((Element) node, factory));
+			} else {
+				ret.add((Node) ((Node) node).clone());
+			}
+		}
+		return ret;
+	}
+
+	private static QName qname(final QName qname, final DocumentFactory factory) {
+		return factory.createQName(qname.getName(), qname.getNamespace());
+	}
+
+	/**
+	 * @return SAXReader that builds the tree using plain elements
+	 */
+	static SAXReader createReader() {
+		return new SAXReader(PLAIN);
+	}
+
+	/**
+	 * @param factory PLAIN or INSTANCE
+	 * @param lean true: drop indentation, comments and processing instructions while parsing
+	 * @param projection null or paths to keep while parsing
+	 * @return SAXReader that builds the tree using the elements of the given factory
+	 */
+	static SAXReader createReader(final TrackingDocumentFactory factory, final boolean lean,
+			final XMLProjection projection) {
+		final SAXReader r = createReader(null, factory, lean);
+		if (projection != null) {
+			final XMLFilterImpl filter = projection.createFilter();
+			if (r.getXMLFilter() != null) {
+				filter.setParent(r.getXMLFilter()); // SAXReader chains the filters
+			}
+			r.setXMLFilter(filter);
+		}
+		return r;
+	}
+
+	/**
+	 * @param xmlReader null or SAX parser to use, e.g. with schema validation
+	 * @param factory PLAIN or INSTANCE
+	 * @param lean true: drop indentation, comments and processing instructions while parsing
+	 * @return SAXReader that builds the tree using the elements of the given factory
+	 */
+	static SAXReader createReader(final XMLReader xmlReader, final TrackingDocumentFactory factory, final boolean lean) {
+		final SAXReader r = lean ? new LeanReader(xmlReader) : new SAXReader(xmlReader);
+		r.setDocumentFactory(factory);
+		if (lean) {
+			r.setMergeAdjacentText(true); // LeanContentHandler decides per merged text node
+			r.setIgnoreComments(true);
+			r.setXMLFilter(new XMLFilterImpl() {
+				@Override
+				public void processingInstruction(final String target, final String data) {
+				}
+			});
+		}
+		return r;
+	}
+
+	/**
+	 * SAXReader for lean loading. Element handlers are not supported.
+	 */
+	private static class LeanReader extends SAXReader {
+
+		LeanReader(final XMLReader xmlReader) {
+			super(xmlReader);
+		}
+
+		@Override
+		protected SAXContentHandler createContentHandler(final XMLReader reader) {
+			return new LeanContentHandler(getDocumentFactory());
+		}
+	}
+
+	/**
+	 * Drops whitespace-only text nodes containing a line break, i.e. indentation.
+	 * Whitespace without a line break stays, so the space in {@code <p><b>a</b> <i>b</i></p>} is kept.
+	 * Text containing other characters and CDATA sections are kept unchanged.
+	 */
+	private static class LeanContentHandler extends SAXContentHandler {
+		private boolean cdata = false;
+		/** current text contains a line break */
+		private boolean lineBreak = false;
+
+		LeanContentHandler(final DocumentFactory factory) {
+			super(factory);
+		}
+
+		@Override
+		public void characters(final char[] ch, final int start, final int length) throws SAXException {
+			if (!cdata && !lineBreak) {
+				for (int i = start; i < start + length; i++) {
+					if (ch[i] == '\n' || ch[i] == '\r') {
+						lineBreak = true;
+						break;
+					}
+				}
+			}
+			super.characters(ch, start, length);
+		}
+
+		@Override
+		public void startCDATA() throws SAXException {
+			super.startCDATA();
+			cdata = true;
+		}
+
+		@Override
+		public void endCDATA() throws SAXException {
+			cdata = false;
+			super.endCDATA();
+		}
+
+		@Override
+		protected void completeCurrentTextNode() {
+			setStripWhitespaceText(lineBreak); // SAXContentHandler only strips whitespace-only text
+			super.completeCurrentTextNode();
+			lineBreak = false;
+		}
+	}
+
+	/**
+	 * Same as DocumentHelper.parseText(), but using plain elements and a TrackingDocument.
+	 * 
+	 * @param xml valid XML String
+	 * @return Document
+	 * @throws DocumentException -
+	 */
+	static Document parseText(final String xml) throws DocumentException {
+		return parseText(xml, PLAIN);
+	}
+
+	/**
+	 * Same as DocumentHelper.parseText(), but using the given factory.
+	 * 
+	 * @param xml valid XML String
+	 * @param factory DocumentFactory, e.g. the one of the element the parsed XML will be added to
+	 * @return Document
+	 * @throws DocumentException -
+	 */
+	static Document parseText(final String xml, final DocumentFactory factory) throws DocumentException {
+		final String encoding = getEncoding(xml);
+		final InputSource source = new InputSource(new StringReader(xml));
+		source.setEncoding(encoding);
+		final Document doc = new SAXReader(factory).read(source);
+		if (doc.getXMLEncoding() == null) {
+			doc.setXMLEncoding(encoding);
+		}
+		return doc;
+	}
+
+	private static String getEncoding(final String text) {
+		final String xml = text.trim();
+		if (xml.startsWith("<?xml")) {
+			final StringTokenizer tokens = new StringTokenizer(xml.substring(0, xml.indexOf("?>")), " =\"'");
+			while (tokens.hasMoreTokens()) {
+				if ("encoding".equals(tokens.nextToken())) {
+					return tokens.hasMoreTokens() ? tokens.nextToken() : null;
+				}
+			}
+		}
+		return null;
+	}
+}
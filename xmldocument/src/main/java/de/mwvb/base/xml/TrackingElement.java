@@ -0,0 +1,184 @@
+package de.mwvb.base.xml;
+
+import java.util.List;
+
+import org.dom4j.Attribute;
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.Node;
+import org.dom4j.QName;
+
+/**
+ * DOM4J element that invalidates its cached data and the cached data of its ancestors on each change.
+ * Structural, name and attribute changes are reported to the TrackingListeners of the document.
+ * 
+ * <p>Invariant: if an element has a cached XML String or content hash, all of its TrackingElement descendants
+ * have one, too. So invalidation can stop at the first ancestor without cached data.
+ * 
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+class TrackingElement extends IndexedElement {
+	private static final long serialVersionUID = 1L;
+	private transient String cachedXML;
+	/** 0 if not computed */
+	private transient long contentHash;
+
+	TrackingElement(final QName qname) {
+		super(qname);
+	}
+
+	/**
+	 * Must be called after each change of name, attributes or content.
+	 */
+	void changed() {
+		Element e = this;
+		while (e instanceof TrackingElement) {
+			final TrackingElement te = (TrackingElement) e;
+			if (te.cachedXML == null && te.contentHash == 0 && te != this) {
+				break;
+			}
+			te.cachedXML = null;
+			te.contentHash = 0;
+			e = te.getParent();
+		}
+	}
+
+	String getCachedXML() {
+		return cachedXML;
+	}
+
+	void setCachedXML(final String xml) {
+		cachedXML = xml;
+	}
+
+	/**
+	 * @return 0 if not computed
+	 */
+	long getContentHash() {
+		return contentHash;
+	}
+
+	void setContentHash(final long hash) {
+		contentHash = hash;
+	}
+
+	@Override
+	void reorderChildren(final int start, final Element[] newOrder) {
+		super.reorderChildren(start, newOrder);
+		changed();
+		final List<TrackingListener> listeners = listeners();
+		if (listeners != null) {
+			for (TrackingListener listener : listeners) {
+				listener.childrenReordered(this);
+			}
+		}
+	}
+
+	void clearCachedXML() {
+		cachedXML = null;
+		for (int i = 0, n = nodeCount(); i < n; i++) {
+			final Node node = node(i);
+			if (node instanceof TrackingElement) {
+				((TrackingElement) node).clearCachedXML();
+			}
+		}
+	}
+
+	@Override
+	public String asXML() {
+		final Document doc = getDocument();
+		if (doc instanceof TrackingDocument && ((TrackingDocument) doc).isSerializationCache()) {
+			return CachingXMLWriter.asXML(this);
+		}
+		return super.asXML();
+	}
+
+	@Override
+	public void setQName(final QName name) {
+		final String oldName = getName();
+		super.setQName(name);
+		changed();
+		final List<TrackingListener> listeners = listeners();
+		if (listeners != null) {
+			for (TrackingListener listener : listeners) {
+				listener.nameChanged(this, oldName);
+			}
+		}
+	}
+
+	@Override
+	public Element addAttribute(final String name, final String value) {
+		final Attribute attribute = attribute(name);
+		final String oldValue = attribute == null ? null : attribute.getValue();
+		super.addAttribute(name, value);
+		changedInPlace(attribute, name, oldValue);
+		return this;
+	}
+
+	@Override
+	public Element addAttribute(final QName qName, final String value) {
+		final Attribute attribute = attribute(qName);
+		final String oldValue = attribute == null ? null : attribute.getValue();
+		super.addAttribute(qName, value);
+		changedInPlace(attribute, qName.getName(), oldValue);
+		return this;
+	}
+
+	/**
+	 * Adding and removing of attributes is reported by childAdded and childRemoved.
+	 * Only the change of the value of an existing attribute must be reported here.
+	 */
+	private void changedInPlace(final Attribute attribute, final String name, final String oldValue) {
+		if (attribute != null && attribute.getParent() == this) {
+			changed();
+			final List<TrackingListener> listeners = listeners();
+			if (listeners != null) {
+				for (TrackingListener listener : listeners) {
+					listener.attributeChanged(this, name, oldValue, attribute.getValue());
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void childAdded(final Node node) {
+		super.childAdded(node);
+		changed();
+		if (node instanceof Element || node instanceof Attribute) {
+			final List<TrackingListener> listeners = listeners();
+			if (listeners != null) {
+				for (TrackingListener listener : listeners) {
+					if (node instanceof Element) {
+						listener.elementAdded((Element) node);
+					} else {
+						listener.attributeChanged(this, node.getName(), null, ((Attribute) node).getValue());
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void childRemoved(final Node node) {
+		super.childRemoved(node);
+		changed();
+		if (node instanceof Element || node instanceof Attribute) {
+			final List<TrackingListener> listeners = listeners();
+			if (listeners != null) {
+				for (TrackingListener listener : listeners) {
+					if (node instanceof Element) {
+						listener.elementRemoved((Element) node);
+					} else {
+						listener.attributeChanged(this, node.getName(), ((Attribute) node).getValue(), null);
+					}
+				}
+			}
+		}
+	}
+
+	private List<TrackingListener> listeners() {
+		final Document doc = getDocument();
+		return doc instanceof TrackingDocument ? ((TrackingDocument) doc).getListeners() : null;
+	}
+}
@@ -0,0 +1,41 @@
+package de.mwvb.base.xml;
+
+import org.dom4j.Element;
+
+/**
+ * Is informed about changes of a TrackingDocument, e.g. to keep an index up to date.
+ * 
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+interface TrackingListener {
+
+	/**
+	 * @param element root of the subtree which has been added to the document
+	 */
+	void elementAdded(Element element);
+
+	/**
+	 * @param element root of the subtree which has been removed from the document
+	 */
+	void elementRemoved(Element element);
+
+	/**
+	 * @param element element whose name has been changed
+	 * @param oldName name before the change
+	 */
+	void nameChanged(Element element, String oldName);
+
+	/**
+	 * @param element element whose attribute has been added, changed or removed
+	 * @param attributeName attribute name
+	 * @param oldValue null if attribute has been added
+	 * @param newValue null if attribute has been removed
+	 */
+	void attributeChanged(Element element, String attributeName, String oldValue, String newValue);
+
+	/**
+	 * @param parent element whose child elements have been reordered, no element has been added or removed
+	 */
+	void childrenReordered(Element parent);
+}
@@ -0,0 +1,23 @@
+package de.mwvb.base.xml;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds a field to an attribute, see XMLBinder.
+ * <p>Field types: String, int, long, double, boolean, their wrapper classes and enums.
+ * 
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface XMLAttr {
+
+	/**
+	 * @return attribute name, default is the field name
+	 */
+	String value() default "";
+}
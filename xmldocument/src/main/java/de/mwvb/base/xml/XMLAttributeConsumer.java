@@ -0,0 +1,18 @@
+package de.mwvb.base.xml;
+
+/**
+ * Callback for XMLElement.forEachAttribute()
+ * 
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+public interface XMLAttributeConsumer {
+
+	/**
+	 * Is called for each attribute.
+	 * 
+	 * @param name attribute name
+	 * @param value attribute value
+	 */
+	void accept(String name, String value);
+}
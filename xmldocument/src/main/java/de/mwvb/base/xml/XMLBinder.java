@@ -0,0 +1,475 @@
+package de.mwvb.base.xml;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.dom4j.Element;
+import org.dom4j.Node;
+
+/**
+ * Binds Java objects to XML elements
+ *
+ * <p>Fields annotated with XMLAttr, XMLText and XMLChild are read from and written to attributes, the text
+ * and child elements. Example:
+ * <pre>
+ * &#64;XMLBound("person")
+ * public class Person {
+ *     &#64;XMLAttr private int id;
+ *     &#64;XMLAttr("surname") private String name;
+ *     &#64;XMLChild private List&lt;Address&gt; addresses;
+ * }
+ *
+ * XMLBinder&lt;Person&gt; binder = XMLBinder.of(Person.class);
+ * List&lt;Person&gt; persons = binder.readChildren(dok.getElement());
+ * binder.add(dok.getElement(), new Person());
+ * </pre>
+ *
+ * <p>The fields of a class are analyzed once. The resulting accessor plan is cached and used for all
+ * objects of that class, so there's no annotation lookup or type check per object.
+ * The bound classes need a constructor without parameters, which may be private.
+ * A XMLBinder is thread-safe.
+ *
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+public class XMLBinder<T> {
+	private static final ConcurrentMap<Class<?>, XMLBinder<?>> binders = new ConcurrentHashMap<Class<?>, XMLBinder<?>>();
+	private static final int STRING = 1;
+	private static final int INT = 2;
+	private static final int LONG = 3;
+	private static final int DOUBLE = 4;
+	private static final int BOOLEAN = 5;
+	private static final int INTEGER_OBJECT = 6;
+	private static final int LONG_OBJECT = 7;
+	private static final int DOUBLE_OBJECT = 8;
+	private static final int BOOLEAN_OBJECT = 9;
+	private static final int ENUM = 10;
+	private final Class<T> type;
+	private final String elementName;
+	private final Constructor<T> constructor;
+	private final Value[] attributes;
+	/** null if there's no XMLText field */
+	private final Value text;
+	private final Child[] children;
+	private final Map<String, Child> childrenByName = new HashMap<String, Child>();
+
+	/** attribute, text or text of a child element */
+	private static class Value {
+		final Field field;
+		final String name;
+		final int kind;
+		final Class<?> enumType;
+
+		Value(final Field field, final String name, final Class<?> valueType) {
+			this.field = field;
+			this.name = name;
+			kind = kind(valueType);
+			enumType = valueType;
+			if (kind == 0) {
+				throw new IllegalArgumentException("Unsupported type for XML binding: " + field);
+			}
+		}
+
+		/** sets the field, primitive fields without boxing */
+		void read(final Object target, final String s) throws IllegalAccessException {
+			if (kind == STRING) {
+				field.set(target, s);
+			} else if (s.length() > 0) {
+				switch (kind) {
+				case INT:
+					field.setInt(target, Integer.parseInt(s));
+					break;
+				case LONG:
+					field.setLong(target, Long.parseLong(s));
+					break;
+				case DOUBLE:
+					field.setDouble(target, Double.parseDouble(s));
+					break;
+				case BOOLEAN:
+					field.setBoolean(target, "true".equalsIgnoreCase(s));
+					break;
+				default:
+					field.set(target, parse(s));
+				}
+			}
+		}
+
+		/** @return null if the field value is null */
+		String write(final Object source) throws IllegalAccessException {
+			switch (kind) {
+			case INT:
+				return Integer.toString(field.getInt(source));
+			case LONG:
+				return Long.toString(field.getLong(source));
+			case DOUBLE:
+				return Double.toString(field.getDouble(source));
+			case BOOLEAN:
+				return field.getBoolean(source) ? "true" : "false";
+			default:
+				return format(field.get(source));
+			}
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Object parse(final String s) {
+			switch (kind) {
+			case STRING:
+				return s;
+			case INT:
+			case INTEGER_OBJECT:
+				return s.length() == 0 ? null : Integer.valueOf(s);
+			case LONG:
+			case LONG_OBJECT:
+				return s.length() == 0 ? null : Long.valueOf(s);
+			case DOUBLE:
+			case DOUBLE_OBJECT:
+				return s.length() == 0 ? null : Double.valueOf(s);
+			case BOOLEAN:
+			case BOOLEAN_OBJECT:
+				return s.length() == 0 ? null : Boolean.valueOf("true".equalsIgnoreCase(s));
+			default:
+				return s.length() == 0 ? null : Enum.valueOf((Class<Enum>) enumType, s);
+			}
+		}
+
+		String format(final Object value) {
+			if (value == null) {
+				return null;
+			}
+			return kind == ENUM ? ((Enum<?>) value).name() : value.toString();
+		}
+	}
+
+	/** child element or list of child elements */
+	private static class Child {
+		final Field field;
+		final String name;
+		final boolean list;
+		final Class<?> itemType;
+		/** for child elements whose text is bound, otherwise null */
+		final Value value;
+		/** for bound child objects, created on first use because classes can reference themselves */
+		private volatile XMLBinder<?> binder;
+
+		Child(final Field field, final String name, final boolean list, final Class<?> itemType) {
+			this.field = field;
+			this.name = name;
+			this.list = list;
+			this.itemType = itemType;
+			value = kind(itemType) == 0 ? null : new Value(field, name, itemType);
+		}
+
+		XMLBinder<?> binder() {
+			if (binder == null) {
+				binder = of(itemType);
+			}
+			return binder;
+		}
+
+		Object read(final Element e) {
+			return value == null ? binder().read(e) : value.parse(e.getText());
+		}
+	}
+
+	private XMLBinder(final Class<T> type) {
+		this.type = type;
+		final XMLBound bound = type.getAnnotation(XMLBound.class);
+		elementName = bound != null ? bound.value() : decapitalize(type.getSimpleName());
+		try {
+			constructor = type.getDeclaredConstructor();
+			constructor.setAccessible(true);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException("Class needs a constructor without parameters: " + type.getName(), e);
+		}
+		final List<Value> attrs = new ArrayList<Value>();
+		final List<Child> childs = new ArrayList<Child>();
+		Value textValue = null;
+		for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				if (Modifier.isStatic(field.getModifiers())) {
+					continue;
+				}
+				final XMLAttr attr = field.getAnnotation(XMLAttr.class);
+				final XMLChild child = field.getAnnotation(XMLChild.class);
+				if (attr != null) {
+					field.setAccessible(true);
+					attrs.add(new Value(field, attr.value().length() == 0 ? field.getName() : attr.value(), field.getType()));
+				} else if (field.isAnnotationPresent(XMLText.class)) {
+					field.setAccessible(true);
+					textValue = new Value(field, null, field.getType());
+				} else if (child != null) {
+					field.setAccessible(true);
+					final Child ch = createChild(field, child.value());
+					childs.add(ch);
+					childrenByName.put(ch.name, ch);
+				}
+			}
+		}
+		attributes = attrs.toArray(new Value[attrs.size()]);
+		text = textValue;
+		children = childs.toArray(new Child[childs.size()]);
+	}
+
+	private static Child createChild(final Field field, final String name) {
+		final boolean list = List.class.isAssignableFrom(field.getType());
+		Class<?> itemType = field.getType();
+		if (list) {
+			final Type t = field.getGenericType();
+			if (!(t instanceof ParameterizedType) || !(((ParameterizedType) t).getActualTypeArguments()[0] instanceof Class)) {
+				throw new IllegalArgumentException("List field needs an item class for XML binding: " + field);
+			}
+			itemType = (Class<?>) ((ParameterizedType) t).getActualTypeArguments()[0];
+		}
+		String n = name;
+		if (n.length() == 0) {
+			final XMLBound bound = itemType.getAnnotation(XMLBound.class);
+			n = bound != null ? bound.value() : field.getName();
+		}
+		return new Child(field, n, list, itemType);
+	}
+
+	private static int kind(final Class<?> c) {
+		if (c == String.class) {
+			return STRING;
+		} else if (c == int.class) {
+			return INT;
+		} else if (c == long.class) {
+			return LONG;
+		} else if (c == double.class) {
+			return DOUBLE;
+		} else if (c == boolean.class) {
+			return BOOLEAN;
+		} else if (c == Integer.class) {
+			return INTEGER_OBJECT;
+		} else if (c == Long.class) {
+			return LONG_OBJECT;
+		} else if (c == Double.class) {
+			return DOUBLE_OBJECT;
+		} else if (c == Boolean.class) {
+			return BOOLEAN_OBJECT;
+		} else if (c.isEnum()) {
+			return ENUM;
+		}
+		return 0;
+	}
+
+	private static String decapitalize(final String name) {
+		return name.length() == 0 ? name : Character.toLowerCase(name.charAt(0)) + name.substring(1);
+	}
+
+	/**
+	 * @param type class with fields annotated with XMLAttr, XMLText or XMLChild
+	 * @return cached XMLBinder for the given class
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> XMLBinder<T> of(final Class<T> type) {
+		XMLBinder<T> binder = (XMLBinder<T>) binders.get(type);
+		if (binder == null) {
+			binder = new XMLBinder<T>(type);
+			final XMLBinder<T> other = (XMLBinder<T>) binders.putIfAbsent(type, binder);
+			if (other != null) {
+				binder = other;
+			}
+		}
+		return binder;
+	}
+
+	/**
+	 * @return element name, value of XMLBound or class name beginning with a lower case letter
+	 */
+	public String getElementName() {
+		return elementName;
+	}
+
+	/**
+	 * Creates an object from a XML element. The name of the element is not checked.
+	 * Fields without attribute or child element keep their initial values.
+	 *
+	 * @param element XMLElement
+	 * @return new object
+	 */
+	public T read(final XMLElement element) {
+		return read(((XMLElementImpl) element).element);
+	}
+
+	/**
+	 * @param parent XMLElement
+	 * @return objects for all child elements with the element name of this binder
+	 */
+	public List<T> readChildren(final XMLElement parent) {
+		final Element p = ((XMLElementImpl) parent).element;
+		final List<T> ret = new ArrayList<T>();
+		for (int i = 0, n = p.nodeCount(); i < n; i++) {
+			final Node node = p.node(i);
+			if (node instanceof Element && elementName.equals(node.getName())) {
+				ret.add(read((Element) node));
+			}
+		}
+		return ret;
+	}
+
+	@SuppressWarnings("unchecked")
+	T read(final Element e) {
+		try {
+			final T ret = constructor.newInstance();
+			for (Value a : attributes) {
+				final String s = e.attributeValue(a.name);
+				if (s != null) {
+					a.read(ret, s);
+				}
+			}
+			if (text != null) {
+				text.read(ret, e.getText());
+			}
+			if (children.length > 0) {
+				for (Child c : children) {
+					if (c.list) {
+						c.field.set(ret, new ArrayList<Object>());
+					}
+				}
+				for (int i = 0, n = e.nodeCount(); i < n; i++) {
+					final Node node = e.node(i);
+					if (node instanceof Element) {
+						final Child c = childrenByName.get(node.getName());
+						if (c != null) {
+							final Object value = c.read((Element) node);
+							if (c.list) {
+								((List<Object>) c.field.get(ret)).add(value);
+							} else if (value != null || !c.field.getType().isPrimitive()) {
+								c.field.set(ret, value);
+							}
+						}
+					}
+				}
+			}
+			return ret;
+		} catch (RuntimeException ex) {
+			throw ex;
+		} catch (Exception ex) {
+			throw new RuntimeException("Error reading " + type.getName() + " from XML element " + e.getName(), ex);
+		}
+	}
+
+	/**
+	 * Creates a new child element and writes the object into it.
+	 *
+	 * @param parent parent element
+	 * @param object object to be written
+	 * @return new XMLElement
+	 */
+	public XMLElement add(final XMLElement parent, final T object) {
+		final Element e = ((XMLElementImpl) parent).element.addElement(elementName);
+		write(object, e);
+		return XMLElementImpl.create(e);
+	}
+
+	/**
+	 * Writes the fields of the object as attributes, text and child elements into an existing element.
+	 * Existing attributes with the same names are overwritten, child elements are appended.
+	 *
+	 * @param object object to be written
+	 * @param element target element
+	 */
+	public void write(final T object, final XMLElement element) {
+		write(object, ((XMLElementImpl) element).element);
+	}
+
+	void write(final Object object, final Element e) {
+		try {
+			for (Value a : attributes) {
+				final String s = a.write(object);
+				if (s != null) {
+					e.addAttribute(a.name, s);
+				}
+			}
+			if (text != null) {
+				final String s = text.write(object);
+				if (s != null) {
+					e.setText(s);
+				}
+			}
+			for (Child c : children) {
+				final Object value = c.field.get(object);
+				if (value == null) {
+					continue;
+				}
+				for (Object item : c.list ? (List<?>) value : Collections.singletonList(value)) {
+					if (item == null) {
+						continue;
+					}
+					final Element ce = e.addElement(c.name);
+					if (c.value != null) {
+						ce.setText(c.value.format(item));
+					} else {
+						c.binder().write(item, ce);
+					}
+				}
+			}
+		} catch (IllegalAccessException ex) {
+			throw new RuntimeException("Error writing " + type.getName() + " to XML element " + e.getName(), ex);
+		}
+	}
+
+	/**
+	 * Writes the object as element to a StAX stream, e.g. to create large files without building a DOM.
+	 *
+	 * @param object object to be written
+	 * @param out XMLStreamWriter
+	 * @throws XMLStreamException -
+	 */
+	public void write(final T object, final XMLStreamWriter out) throws XMLStreamException {
+		write(object, elementName, out);
+	}
+
+	private void write(final Object object, final String name, final XMLStreamWriter out) throws XMLStreamException {
+		try {
+			out.writeStartElement(name);
+			for (Value a : attributes) {
+				final String s = a.write(object);
+				if (s != null) {
+					out.writeAttribute(a.name, s);
+				}
+			}
+			if (text != null) {
+				final String s = text.write(object);
+				if (s != null) {
+					out.writeCharacters(s);
+				}
+			}
+			for (Child c : children) {
+				final Object value = c.field.get(object);
+				if (value == null) {
+					continue;
+				}
+				for (Object item : c.list ? (List<?>) value : Collections.singletonList(value)) {
+					if (item == null) {
+						continue;
+					}
+					if (c.value != null) {
+						out.writeStartElement(c.name);
+						out.writeCharacters(c.value.format(item));
+						out.writeEndElement();
+					} else {
+						c.binder().write(item, c.name, out);
+					}
+				}
+			}
+			out.writeEndElement();
+		} catch (IllegalAccessException ex) {
+			throw new RuntimeException("Error writing " + type.getName() + " to XML stream", ex);
+		}
+	}
+}
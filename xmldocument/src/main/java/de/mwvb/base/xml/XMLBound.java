@@ -0,0 +1,22 @@
+package de.mwvb.base.xml;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class which can be read from and written to a XML element using XMLBinder.
+ * 
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface XMLBound {
+
+	/**
+	 * @return element name
+	 */
+	String value();
+}
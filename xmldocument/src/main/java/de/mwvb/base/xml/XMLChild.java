@@ -0,0 +1,24 @@
+package de.mwvb.base.xml;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds a field to child elements, see XMLBinder.
+ * <p>Field types: a class annotated with XMLBound, a List of such a class, or a type allowed for XMLAttr.
+ * In the last case the text of the child element is bound.
+ * 
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface XMLChild {
+
+	/**
+	 * @return name of the child elements, default is the element name of the XMLBound class or the field name
+	 */
+	String value() default "";
+}
@@ -2,15 +2,22 @@ package de.mwvb.base.xml;
 
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
-import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 import org.dom4j.Node;
 import org.dom4j.io.DOMReader;
@@ -18,6 +25,7 @@ import org.dom4j.io.DOMWriter;
 import org.dom4j.io.OutputFormat;
 import org.dom4j.io.SAXReader;
 import org.dom4j.io.XMLWriter;
+import org.xml.sax.InputSource;
 
 /**
  * XML document
@@ -38,7 +46,18 @@ import org.dom4j.io.XMLWriter;
  * @since  2008
  */
 public class XMLDocument implements Closeable {
+	private static final XMLQuery BY_ID = XMLQuery.compile("//*[@id=$id]");
+	private static final XMLQuery CHILD_BY_ID = XMLQuery.compile("*[@id=$id]");
+	private static final int PARALLEL_CHUNK_SIZE = 4 * 1024 * 1024;
 	private Document doc;
+	private XMLValidationResult validationResult;
+	private boolean leanLoad = false;
+	private XMLProjection projection;
+	private boolean nameIndex = false;
+	private boolean serializationCache = false;
+	/** file name and content hash of the last saveFileIfChanged() call */
+	private String savedFileName;
+	private long savedContentHash;
 	
 	/**
 	 * Default constructor
@@ -57,7 +76,9 @@ public class XMLDocument implements Closeable {
 			throw new IllegalArgumentException("XMLDocument argument xml must not be null!");
 		}
 		try {
-			doc = DocumentHelper.parseText(xml);
+			final Object token = XMLMonitor.startLoad(XMLMonitor.STRING);
+			doc = TrackingDocumentFactory.parseText(xml);
+			XMLMonitor.finishLoad(token, XMLMonitor.STRING, xml.length(), doc);
 		} catch (Throwable e) {
 			throw new RuntimeException(e);
 		}
@@ -69,9 +90,16 @@ public class XMLDocument implements Closeable {
 	 * @param isResource true if it is a resource file in a package,<br>false if it is a file in file system
 	 * @param fileName file name incl. path
 	 * <br>File name can begin with "file:" or "http:". In that case the isResource option will be ignored.
+	 * <br>"http:" URLs are loaded using XMLHttpLoader.getDefault(), which has no cache unless configured.
 	 */
 	public XMLDocument(final boolean isResource, final String fileName) {
-		if (fileName.startsWith("file:") || fileName.startsWith("http:")) {
+		if (fileName.startsWith("http:")) {
+			try {
+				loadStream(XMLHttpLoader.getDefault().open(fileName));
+			} catch (Throwable e) {
+				throw new RuntimeException("Error loading XML file '" + fileName + "'!", e);
+			}
+		} else if (fileName.startsWith("file:")) {
 			try {
 				URL url = new URL(fileName);
 				loadStream(url.openConnection().getInputStream());
@@ -103,6 +131,28 @@ public class XMLDocument implements Closeable {
 		loadStream(stream);
 	}
 
+	/**
+	 * Load and validate XML file constructor
+	 * <p>See getValidationResult().
+	 * 
+	 * @param file file in file system
+	 * @param schemaLocation XSD file name or URL
+	 */
+	public XMLDocument(final File file, final String schemaLocation) {
+		loadFile(file.getPath(), schemaLocation);
+	}
+
+	/**
+	 * Load and validate XML stream constructor
+	 * <p>See getValidationResult().
+	 * 
+	 * @param stream InputStream
+	 * @param schemaLocation XSD file name or URL
+	 */
+	public XMLDocument(final InputStream stream, final String schemaLocation) {
+		loadStream(stream, schemaLocation);
+	}
+
 	/**
 	 * Load XML file constructor
 	 * 
@@ -121,8 +171,26 @@ public class XMLDocument implements Closeable {
 	 * @param w3cDoc org.w3c.dom.Document
 	 */
 	public XMLDocument(final org.w3c.dom.Document w3cDoc) {
-		final DOMReader reader = new DOMReader();
+		final Object token = XMLMonitor.startLoad(XMLMonitor.W3C);
+		final DOMReader reader = new DOMReader(TrackingDocumentFactory.PLAIN);
 		doc = reader.read(w3cDoc);
+		XMLMonitor.finishLoad(token, XMLMonitor.W3C, -1, doc);
+	}
+
+	/**
+	 * Creates a deep copy of this document. This is much faster than new XMLDocument(getXML())
+	 * because the copy is created without serializing and parsing.
+	 * 
+	 * @return new XMLDocument, independent of this document
+	 */
+	public XMLDocument copy() {
+		final XMLDocument ret = new XMLDocument();
+		if (doc != null) {
+			ret.doc = (Document) doc.clone();
+		}
+		ret.nameIndex = nameIndex;
+		ret.serializationCache = serializationCache;
+		return ret;
 	}
 
 	/**
@@ -137,6 +205,35 @@ public class XMLDocument implements Closeable {
 		return ret;
 	}
 
+	/**
+	 * Load XML file in lean load mode
+	 * 
+	 * @param fileName name of file in file system
+	 * @return XMLDocument without whitespace-only text nodes, comments and processing instructions
+	 * @see #setLeanLoad(boolean)
+	 */
+	public static XMLDocument loadLean(final String fileName) {
+		final XMLDocument ret = new XMLDocument();
+		ret.setLeanLoad(true);
+		ret.loadFile(fileName);
+		return ret;
+	}
+
+	/**
+	 * Load only the given paths of a XML file
+	 * 
+	 * @param fileName name of file in file system
+	 * @param paths paths to keep, e.g. "/catalog/product/@sku", "/catalog/product/price"
+	 * @return XMLDocument containing only the kept nodes and their ancestors
+	 * @see XMLProjection
+	 */
+	public static XMLDocument loadProjection(final String fileName, final String... paths) {
+		final XMLDocument ret = new XMLDocument();
+		ret.setProjection(XMLProjection.of(paths));
+		ret.loadFile(fileName);
+		return ret;
+	}
+
 	/**
 	 * Load XML file
 	 * 
@@ -153,6 +250,58 @@ public class XMLDocument implements Closeable {
 		}
 	}
 
+	/**
+	 * Load XML file in the background
+	 * <p>The calling thread is not blocked. Cancelling the returned Future with mayInterruptIfRunning=true
+	 * aborts the file reading. Use a bounded executor (see createLoadExecutor) to limit the number of loads in flight.
+	 * <p>Reading and parsing run in one task. Use loadAsync(fileName, ioExecutor, parseExecutor) to separate them.
+	 * 
+	 * @param fileName name of file in file system
+	 * @param executor executor that reads and parses the file
+	 * @return Future delivering the loaded XMLDocument
+	 */
+	public static Future<XMLDocument> loadAsync(final String fileName, final ExecutorService executor) {
+		return executor.submit(new Callable<XMLDocument>() {
+			@Override
+			public XMLDocument call() throws Exception {
+				final XMLDocument ret = new XMLDocument();
+				ret.loadStream(new InterruptibleInputStream(new FileInputStream(fileName)));
+				return ret;
+			}
+		});
+	}
+
+	/**
+	 * Load XML file in the background using separate executors for reading and parsing
+	 * <p>The ioExecutor reads the whole file into memory, then the parseExecutor parses it. So slow file systems
+	 * block only the I/O threads, and the number of parse threads can match the number of processors.
+	 * Cancelling the returned Future with mayInterruptIfRunning=true aborts the running stage.
+	 * If the parseExecutor rejects the parse stage, the Future fails with the RejectedExecutionException.
+	 * 
+	 * @param fileName name of file in file system
+	 * @param ioExecutor executor that reads the file, e.g. createLoadExecutor(4, 100)
+	 * @param parseExecutor executor that parses the file content
+	 * @return Future delivering the loaded XMLDocument
+	 */
+	public static Future<XMLDocument> loadAsync(final String fileName, final ExecutorService ioExecutor,
+			final ExecutorService parseExecutor) {
+		return AsyncLoad.start(fileName, ioExecutor, parseExecutor);
+	}
+
+	/**
+	 * Creates an executor for loadAsync and saveAsync with backpressure.
+	 * <p>If maxPending tasks are already waiting, further submits are rejected with a
+	 * java.util.concurrent.RejectedExecutionException instead of piling up.
+	 * 
+	 * @param threads number of worker threads
+	 * @param maxPending maximum number of waiting tasks
+	 * @return ExecutorService, must be shut down by the caller
+	 */
+	public static ExecutorService createLoadExecutor(final int threads, final int maxPending) {
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(maxPending));
+	}
+
 	/**
 	 * Load XML file
 	 * 
@@ -160,13 +309,163 @@ public class XMLDocument implements Closeable {
 	 */
 	public void loadFile(final String fileName) {
 		try {
-			final SAXReader r = new SAXReader();
+			final Object token = XMLMonitor.startLoad(XMLMonitor.FILE);
+			final SAXReader r = TrackingDocumentFactory.createReader(factory(), leanLoad, projection);
 			doc = r.read(fileName);
+			loaded();
+			if (token != null) {
+				XMLMonitor.finishLoad(token, XMLMonitor.FILE, new File(fileName).length(), doc);
+			}
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
 	}
 	
+	/**
+	 * Load and validate XML file
+	 * <p>Validation is done in the same SAX pass that builds the tree. The compiled schema is
+	 * cached by XMLSchemaCache. The document is loaded even if it is not valid.
+	 * 
+	 * @param fileName name of file in file system
+	 * @param schemaLocation XSD file name or URL beginning with "file:" or "http:"
+	 * @return validation result
+	 */
+	public XMLValidationResult loadFile(final String fileName, final String schemaLocation) {
+		validationResult = new XMLValidationResult(schemaLocation);
+		try {
+			final Object token = XMLMonitor.startLoad(XMLMonitor.FILE);
+			final InputSource source = new InputSource(new File(fileName).toURI().toString());
+			doc = XMLSchemaCache.read(source, validationResult, factory(), leanLoad);
+			loaded();
+			if (token != null) {
+				XMLMonitor.finishLoad(token, XMLMonitor.FILE, new File(fileName).length(), doc);
+			}
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		return validationResult;
+	}
+	
+	/**
+	 * Lean load mode
+	 * <p>If enabled, the following load methods drop whitespace-only text nodes containing a line break
+	 * (e.g. the indentation written by saveFile), comments and processing instructions while parsing.
+	 * This reduces the number of nodes. Text containing non-whitespace characters and CDATA sections
+	 * are kept unchanged.
+	 * <p>Whitespace without a line break is kept, e.g. the space in {@code <p><b>a</b> <i>b</i></p>}.
+	 * But in mixed content a line break between two elements is lost, so don't use lean load for
+	 * pretty printed mixed content.
+	 * <p>Applies to loadFile, loadStream and loadResource, not to the constructors.
+	 * 
+	 * @param enabled true: lean load, default is false
+	 */
+	public void setLeanLoad(final boolean enabled) {
+		leanLoad = enabled;
+	}
+	
+	/**
+	 * @return true if lean load mode is enabled
+	 */
+	public boolean isLeanLoad() {
+		return leanLoad;
+	}
+
+	/**
+	 * Projection load
+	 * <p>If set, the following load methods keep only the nodes selected by the projection and discard
+	 * all other subtrees while parsing. This reduces load time and memory if only some paths of a large
+	 * document are used. Can be combined with lean load mode.
+	 * <p>Applies to loadFile, loadStream and loadResource, not to the constructors, validating and lazy loads.
+	 * 
+	 * @param projection paths to keep, null to load the complete document (default)
+	 */
+	public void setProjection(final XMLProjection projection) {
+		this.projection = projection;
+	}
+
+	/**
+	 * @return projection used by the load methods, null if the complete document is loaded
+	 */
+	public XMLProjection getProjection() {
+		return projection;
+	}
+	
+	/**
+	 * @return factory creating the elements needed by the optimizations switched on
+	 */
+	private TrackingDocumentFactory factory() {
+		return nameIndex || serializationCache ? TrackingDocumentFactory.INSTANCE : TrackingDocumentFactory.PLAIN;
+	}
+
+	/**
+	 * Applies the optimization settings to the loaded document.
+	 */
+	private void loaded() {
+		((TrackingDocument) doc).setSerializationCache(serializationCache);
+		((TrackingDocument) doc).setNameIndex(nameIndex);
+	}
+
+	/**
+	 * Load XML file lazily
+	 * <p>Only the root element and the start tags of its children are parsed. The content of a child
+	 * of the root element is parsed on its first access, e.g. by getChildren(), getText() or selectNodes().
+	 * This saves time and memory if only some parts of a large file are used.
+	 * <p>The file must not be changed while this XMLDocument is in use. Several threads may read the document
+	 * concurrently, the first access to a child parses its content while the other threads wait.
+	 * If lazy loading is not possible (DOCTYPE, UTF-16) the file is loaded completely.
+	 * 
+	 * @param fileName name of file in file system
+	 */
+	public void loadFileLazy(final String fileName) {
+		final Object token = XMLMonitor.startLoad(XMLMonitor.FILE);
+		try {
+			doc = LazyLoader.load(new File(fileName));
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		if (doc == null) {
+			loadFile(fileName); // monitored there
+			return;
+		}
+		loaded();
+		if (token != null) {
+			XMLMonitor.finishLoad(token, XMLMonitor.FILE, new File(fileName).length(), doc);
+		}
+	}
+
+	/**
+	 * Load XML file using several threads
+	 * <p>A fast pre-scan splits the children of the root element into chunks of some MB. The chunks are
+	 * parsed concurrently by the executor and then put together in document order. The result is the same as
+	 * with loadFile(). Use it for large files with many children of the root element, e.g. with an executor
+	 * having one thread per core.
+	 * <p>If the file can not be split (DOCTYPE, UTF-16) it is loaded by loadFile().
+	 * Lean load and projection are not applied.
+	 *
+	 * @param fileName name of file in file system
+	 * @param executor executor that parses the chunks
+	 */
+	public void loadFileParallel(final String fileName, final ExecutorService executor) {
+		loadFileParallel(fileName, executor, PARALLEL_CHUNK_SIZE);
+	}
+
+	void loadFileParallel(final String fileName, final ExecutorService executor, final int chunkSize) {
+		final Object token = XMLMonitor.startLoad(XMLMonitor.FILE);
+		try {
+			doc = LazyLoader.loadParallel(new File(fileName), executor, chunkSize, factory());
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		if (doc == null) {
+			loadFile(fileName); // monitored there
+			return;
+		}
+		loaded();
+		if (token != null) {
+			XMLMonitor.finishLoad(token, XMLMonitor.FILE, new File(fileName).length(), doc);
+		}
+	}
+
 	/**
 	 * Load XML file
 	 * 
@@ -187,8 +486,11 @@ public class XMLDocument implements Closeable {
 	 */
 	public void loadStream(final InputStream stream) {
 		try {
-			final SAXReader r = new SAXReader();
-			doc = r.read(stream);
+			final Object token = XMLMonitor.startLoad(XMLMonitor.STREAM);
+			final SAXReader r = TrackingDocumentFactory.createReader(factory(), leanLoad, projection);
+			doc = r.read(XMLMonitor.countBytes(token, stream));
+			loaded();
+			XMLMonitor.finishLoad(token, XMLMonitor.STREAM, -1, doc);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		} finally {
@@ -201,6 +503,43 @@ public class XMLDocument implements Closeable {
 		}
 	}
 	
+	/**
+	 * Load and validate XML stream
+	 * <p>Validation is done in the same SAX pass that builds the tree. The compiled schema is
+	 * cached by XMLSchemaCache. The document is loaded even if it is not valid.
+	 * 
+	 * @param stream InputStream, will be closed
+	 * @param schemaLocation XSD file name or URL beginning with "file:" or "http:"
+	 * @return validation result
+	 */
+	public XMLValidationResult loadStream(final InputStream stream, final String schemaLocation) {
+		validationResult = new XMLValidationResult(schemaLocation);
+		try {
+			final Object token = XMLMonitor.startLoad(XMLMonitor.STREAM);
+			doc = XMLSchemaCache.read(new InputSource(XMLMonitor.countBytes(token, stream)), validationResult, factory(),
+					leanLoad);
+			loaded();
+			XMLMonitor.finishLoad(token, XMLMonitor.STREAM, -1, doc);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException ignored) {
+				}
+			}
+		}
+		return validationResult;
+	}
+	
+	/**
+	 * @return result of the last validated load, null if the document has not been loaded with validation
+	 */
+	public XMLValidationResult getValidationResult() {
+		return validationResult;
+	}
+	
 	/**
 	 * Save XML document to file using pretty print format
 	 * 
@@ -208,6 +547,26 @@ public class XMLDocument implements Closeable {
 	 */
 	public void saveFile(final String fileName) {
 		saveFile(fileName, OutputFormat.createPrettyPrint());
+		savedFileName = null; // content hash is only computed by saveFileIfChanged()
+	}
+
+	/**
+	 * Save XML document to file using pretty print format, but only if the content has changed
+	 * since the last saveFileIfChanged() call for this file name.
+	 * <p>The comparison uses getContentHash(), so it doesn't serialize the document.
+	 * 
+	 * @param fileName name of file in file system
+	 * @return true if the file has been written, false if nothing has changed
+	 */
+	public boolean saveFileIfChanged(final String fileName) {
+		final long hash = getContentHash();
+		if (fileName.equals(savedFileName) && savedContentHash == hash && new File(fileName).isFile()) {
+			return false;
+		}
+		saveFile(fileName, OutputFormat.createPrettyPrint());
+		savedFileName = fileName;
+		savedContentHash = hash;
+		return true;
 	}
 
 	/**
@@ -217,10 +576,30 @@ public class XMLDocument implements Closeable {
 	 */
 	public void saveFileCompact(final String fileName) {
 		saveFile(fileName, OutputFormat.createCompactFormat());
+		savedFileName = null;
 	}
 	
+	/**
+	 * Save XML document to file using pretty print format in the background
+	 * <p>The document must not be changed until the returned Future is done.
+	 * 
+	 * @param fileName name of file in file system
+	 * @param executor executor that serializes and writes the document
+	 * @return Future, done when the file has been written
+	 */
+	public Future<Void> saveAsync(final String fileName, final ExecutorService executor) {
+		return executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				saveFile(fileName);
+				return null;
+			}
+		});
+	}
+
 	private void saveFile(final String fileName, final OutputFormat format) {
         try {
+			final Object token = XMLMonitor.startSave(fileName);
 			final FileWriter writer = new FileWriter(fileName);
 			try {
 				format.setEncoding(getEncoding());
@@ -228,6 +607,9 @@ public class XMLDocument implements Closeable {
 			} finally {
 				writer.close();
 			}
+			if (token != null) {
+				XMLMonitor.finishSave(token, fileName, new File(fileName).length());
+			}
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -263,6 +645,48 @@ public class XMLDocument implements Closeable {
 		return XMLElementImpl.getChildElements(doc.getRootElement().elements());
 	}
 	
+	/**
+	 * Returns all elements of the document with the given name in document order.
+	 * Same as selectNodes("//" + elementName) for elements without namespace.
+	 * <p>Uses the element name index if it is switched on.
+	 * 
+	 * @param elementName element name without namespace prefix
+	 * @return XMLElement list
+	 */
+	public List<XMLElement> getDescendants(final String elementName) {
+		final ElementNameIndex index = doc instanceof TrackingDocument ? ((TrackingDocument) doc).getNameIndex() : null;
+		if (index != null) {
+			return XMLElementImpl.getChildElements(index.get(elementName));
+		}
+		final List<XMLElement> ret = new ArrayList<XMLElement>();
+		XMLElementImpl.collectDescendants(doc.getRootElement(), elementName, true, ret);
+		return ret;
+	}
+	
+	/**
+	 * Switches the element name index on or off. Default is off.
+	 * <p>If switched on, getDescendants(elementName) and XPath expressions like "//elementName" use
+	 * an index which maps element names to elements. The index is built on first use and is kept up to date
+	 * on all changes of the document.
+	 * <p>The setting applies to the loaded document and to all following loads.
+	 * Like setSerializationCache(true) switching the index on replaces all elements of a loaded document once.
+	 * 
+	 * @param enabled true: index on, false: index off
+	 */
+	public void setNameIndex(final boolean enabled) {
+		nameIndex = enabled;
+		if (doc instanceof TrackingDocument) {
+			((TrackingDocument) doc).setNameIndex(enabled);
+		}
+	}
+
+	/**
+	 * @return true if element name index is on
+	 */
+	public boolean isNameIndex() {
+		return nameIndex;
+	}
+	
 	/**
 	 * XML element selection using XPath (Dokumentebene)
 	 * <p>An exception will be thrown if the XPath statement is incorrect.
@@ -271,7 +695,13 @@ public class XMLDocument implements Closeable {
 	 * @return XMLElement Liste
 	 */
 	public List<XMLElement> selectNodes(final String pXPath) {
-		return XMLElementImpl.getChildElements(doc.selectNodes(pXPath));
+		final Object token = XMLMonitor.startQuery(pXPath);
+		List<XMLElement> ret = XMLElementImpl.selectByNameIndex(doc, pXPath);
+		if (ret == null) {
+			ret = XMLElementImpl.getChildElements(doc.selectNodes(pXPath));
+		}
+		XMLMonitor.finishQuery(token, pXPath, ret.size());
+		return ret;
 	}
 	
 	/**
@@ -283,14 +713,64 @@ public class XMLDocument implements Closeable {
 	 * @return XMLElement or null if no element was found
 	 */
 	public XMLElement selectSingleNode(final String pXPath) {
-		final Node node = doc.selectSingleNode(pXPath);
-		if (node == null) {
-			return null;
+		final Object token = XMLMonitor.startQuery(pXPath);
+		final XMLElement ret;
+		final List<XMLElement> list = XMLElementImpl.selectByNameIndex(doc, pXPath);
+		if (list != null) {
+			ret = list.isEmpty() ? null : list.get(0);
 		} else {
-			return XMLElementImpl.create((Element) node);
+			final Node node = doc.selectSingleNode(pXPath);
+			ret = node == null ? null : XMLElementImpl.create((Element) node);
 		}
+		XMLMonitor.finishQuery(token, pXPath, ret == null ? 0 : 1);
+		return ret;
 	}
 	
+	/**
+	 * Checks whether the XPath expression selects at least one element.
+	 * <p>For expressions like "//person[@id='4711']" the search stops at the first match.
+	 * 
+	 * @param xpath XPath String
+	 * @return true if an element was found
+	 */
+	public boolean exists(final String xpath) {
+		return new LazySelection(doc, xpath).exists();
+	}
+
+	/**
+	 * Same as selectNodes(xpath).size() but without creating the result list.
+	 * 
+	 * @param xpath XPath String
+	 * @return number of selected elements
+	 */
+	public int count(final String xpath) {
+		return new LazySelection(doc, xpath).count();
+	}
+
+	/**
+	 * Returns the first n elements of selectNodes(xpath).
+	 * <p>For expressions like "//person[@surname='Doe']" the search stops after n matches.
+	 * 
+	 * @param xpath XPath String
+	 * @param n maximum number of elements
+	 * @return XMLElement list with max. n elements
+	 */
+	public List<XMLElement> selectFirst(final String xpath, final int n) {
+		return new LazySelection(doc, xpath).first(n);
+	}
+
+	/**
+	 * Lazy variant of selectNodes(xpath)
+	 * <p>For expressions like "//abc[@x='1']" (simple step with boolean predicates only)
+	 * the elements are searched while iterating. The document must not be changed during the iteration.
+	 * 
+	 * @param xpath XPath String
+	 * @return Iterable for use in a for-each loop
+	 */
+	public Iterable<XMLElement> selectLazy(final String xpath) {
+		return new LazySelection(doc, xpath);
+	}
+
 	/**
 	 * Returns a element which has the given value in attribute "id".
 	 * It is assumed that there is only one element with that id.
@@ -299,7 +779,38 @@ public class XMLDocument implements Closeable {
 	 * @return XMLElement or null if no element was found
 	 */
 	public XMLElement byId(final String id) {
-		return selectSingleNode("//*[@id='" + id + "']");
+		return BY_ID.with("id", id).selectSingleNode(this);
+	}
+	
+	/**
+	 * Creates an index for fast lookup of elements by attribute value, e.g. createIndex("person", "surname")
+	 * instead of selectSingleNode("//person[@surname='Doe']").
+	 * <p>The index is kept up to date on all changes of this document until it is removed by removeIndex().
+	 * Like setSerializationCache(true) the first index replaces all elements of this document once.
+	 * 
+	 * @param elementName name of the elements to be indexed, "*" for all elements
+	 * @param attributeName name of the attribute whose values are the keys
+	 * @return new index
+	 */
+	public XMLIndex createIndex(final String elementName, final String attributeName) {
+		if (!(doc instanceof TrackingDocument)) {
+			throw new IllegalStateException("Document was not initialized!");
+		}
+		((TrackingDocument) doc).track();
+		final XMLIndex index = new XMLIndex(doc.getRootElement(), elementName, attributeName);
+		((TrackingDocument) doc).addListener(index.listener);
+		return index;
+	}
+
+	/**
+	 * Stops updating the index. The index should not be used any more.
+	 * 
+	 * @param index index created by createIndex()
+	 */
+	public void removeIndex(final XMLIndex index) {
+		if (doc instanceof TrackingDocument) {
+			((TrackingDocument) doc).removeListener(index.listener);
+		}
 	}
 	
 	/**
@@ -309,19 +820,103 @@ public class XMLDocument implements Closeable {
 	 * @return true: element was removed, false: element was not found
 	 */
 	public boolean removeChildById(final String id) {
-		final String xpath = "*[@id='" + id + "']";
-		XMLElement p = selectSingleNode("//" + xpath + "/..");
-		if (p != null) {
-			p.removeChildren(xpath);
+		final XMLElement e = byId(id);
+		if (e == null) {
+			return false;
+		}
+		final Element p = ((XMLElementImpl) e).element.getParent();
+		if (p == null) {
+			return false;
+		}
+		for (XMLElement c : CHILD_BY_ID.with("id", id).selectNodes(XMLElementImpl.create(p))) {
+			((XMLElementImpl) c).element.detach();
+		}
+		return true;
+	}
+
+	/**
+	 * Switches the serialization cache on or off. Default is off.
+	 * <p>If switched on, getXML() of this document and of its elements caches the XML String of each element.
+	 * The next getXML() call will only serialize changed elements and reuse the cached XML of unchanged elements.
+	 * Elements using namespaces are not cached. Memory usage will increase.
+	 * <p>The setting applies to the loaded document and to all following loads.
+	 * The cache needs elements that report their changes. Switched on before loading, the load methods create
+	 * such elements. Switching it on for a loaded document replaces all its elements once, so XMLElement objects
+	 * obtained before must not be used any more: changing them throws an IllegalStateException.
+	 * 
+	 * @param enabled true: cache on, false: cache off and clear cache
+	 */
+	public void setSerializationCache(final boolean enabled) {
+		serializationCache = enabled;
+		if (doc instanceof TrackingDocument) {
+			((TrackingDocument) doc).setSerializationCache(enabled);
 		}
-		return p != null;
 	}
 
+	/**
+	 * @return true if serialization cache is on
+	 */
+	public boolean isSerializationCache() {
+		return serializationCache;
+	}
+
+	/**
+	 * Statistics of the document, computed in one pass
+	 * 
+	 * @return element, attribute and text node counts, depth, width and estimated heap size
+	 */
+	public XMLStatistics getStatistics() {
+		if (doc == null) {
+			throw new IllegalStateException("Document was not initialized!");
+		}
+		return XMLStatistics.compute(doc);
+	}
+	
+	/**
+	 * Statistics of a subtree, computed in one pass
+	 * 
+	 * @param element XMLElement of this document
+	 * @return element, attribute and text node counts, depth, width and estimated heap size
+	 */
+	public XMLStatistics getStatistics(final XMLElement element) {
+		return XMLStatistics.compute(((XMLElementImpl) element).element);
+	}
+	
+	/**
+	 * Canonical content hash of the root element, see XMLElement.getContentHash()
+	 * 
+	 * @return hash, never 0
+	 */
+	public long getContentHash() {
+		if (doc == null) {
+			throw new IllegalStateException("Document was not initialized!");
+		}
+		return ContentHash.hash(doc.getRootElement());
+	}
+	
+	/**
+	 * Compares the canonical content of the root elements. The XML declaration, comments and
+	 * processing instructions outside the root element are ignored.
+	 * 
+	 * @param other XMLDocument
+	 * @return true if both documents have the same content
+	 */
+	public boolean contentEquals(final XMLDocument other) {
+		return other != null && getElement().contentEquals(other.getElement());
+	}
+	
+	Document getDom4jDocument() {
+		return doc;
+	}
+	
 	/**
 	 * @return XML String
 	 */
 	public String getXML() {
-		return doc.asXML();
+		final Object token = XMLMonitor.startSave(null);
+		final String ret = doc.asXML();
+		XMLMonitor.finishSave(token, null, ret.length());
+		return ret;
 	}
 	
 	@Override
@@ -1,5 +1,10 @@
 package de.mwvb.base.xml;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 
@@ -22,6 +27,45 @@ public interface XMLElement {
 	 */
 	String getValue(String attributeName);
 
+	/**
+	 * Returns value of given attribute as int.
+	 * 
+	 * @param attributeName name of the attribute
+	 * @param defaultValue is returned if the attribute does not exist or is empty
+	 * @return int value
+	 * @throws NumberFormatException if the attribute value is not an int
+	 */
+	int getInt(String attributeName, int defaultValue);
+
+	/**
+	 * Returns value of given attribute as long.
+	 * 
+	 * @param attributeName name of the attribute
+	 * @param defaultValue is returned if the attribute does not exist or is empty
+	 * @return long value
+	 * @throws NumberFormatException if the attribute value is not a long
+	 */
+	long getLong(String attributeName, long defaultValue);
+
+	/**
+	 * Returns value of given attribute as double.
+	 * 
+	 * @param attributeName name of the attribute
+	 * @param defaultValue is returned if the attribute does not exist or is empty
+	 * @return double value
+	 * @throws NumberFormatException if the attribute value is not a double
+	 */
+	double getDouble(String attributeName, double defaultValue);
+
+	/**
+	 * Returns value of given attribute as boolean.
+	 * 
+	 * @param attributeName name of the attribute
+	 * @param defaultValue is returned if the attribute does not exist or is empty
+	 * @return true if the attribute value is "true" (case is ignored), otherwise false
+	 */
+	boolean getBoolean(String attributeName, boolean defaultValue);
+
 	/**
 	 * Returns all child elements.
 	 * 
@@ -59,6 +103,23 @@ public interface XMLElement {
 	 */
 	String getAttributeName(int index);
 	
+	/**
+	 * Returns value of given attribute.
+	 * Throws exception if index is wrong.
+	 * 
+	 * @param index attribute index from 0
+	 * @return attribute value
+	 */
+	String getAttributeValue(int index);
+
+	/**
+	 * Calls the consumer for each attribute of this element in document order.
+	 * In contrast to getMap() no collection is created.
+	 * 
+	 * @param consumer is called with name and value of each attribute
+	 */
+	void forEachAttribute(XMLAttributeConsumer consumer);
+	
 	/**
 	 * Sets value of given attribute. If value is null the attribute is removed.
 	 * 
@@ -67,6 +128,30 @@ public interface XMLElement {
 	 */
 	void setValue(String attributeName, String value);
 	
+	/**
+	 * Sets int value of given attribute.
+	 * 
+	 * @param attributeName attribute name
+	 * @param value new attribute value
+	 */
+	void setInt(String attributeName, int value);
+
+	/**
+	 * Sets long value of given attribute.
+	 * 
+	 * @param attributeName attribute name
+	 * @param value new attribute value
+	 */
+	void setLong(String attributeName, long value);
+
+	/**
+	 * Sets double value of given attribute.
+	 * 
+	 * @param attributeName attribute name
+	 * @param value new attribute value
+	 */
+	void setDouble(String attributeName, double value);
+
 	/**
 	 * Sets value of given attribute. If value is null there will be no operation.
 	 * 
@@ -98,6 +183,16 @@ public interface XMLElement {
 	 */
 	String getXML();
 
+	/**
+	 * Returns all descendant elements with the given name in document order.
+	 * Same as selectNodes(".//" + elementName) for elements without namespace.
+	 * <p>Uses the element name index of the document if it is switched on.
+	 * 
+	 * @param elementName element name without namespace prefix
+	 * @return XMLElement list
+	 */
+	List<XMLElement> getDescendants(String elementName);
+
 	/**
 	 * XML element selection using XPath (Dokumentebene)
 	 * <p>An exception will be thrown if the XPath statement is incorrect.
@@ -118,6 +213,62 @@ public interface XMLElement {
 	 */
 	XMLElement selectSingleNode(String pXPath);
 
+	/**
+	 * Checks whether the XPath expression selects at least one element.
+	 * <p>For expressions like "//person[@id='4711']" the search stops at the first match.
+	 * 
+	 * @param xpath XPath String
+	 * @return true if an element was found
+	 */
+	boolean exists(String xpath);
+
+	/**
+	 * Same as selectNodes(xpath).size() but without creating the result list.
+	 * 
+	 * @param xpath XPath String
+	 * @return number of selected elements
+	 */
+	int count(String xpath);
+
+	/**
+	 * Returns the first n elements of selectNodes(xpath).
+	 * <p>For expressions like "//person[@surname='Doe']" the search stops after n matches.
+	 * 
+	 * @param xpath XPath String
+	 * @param n maximum number of elements
+	 * @return XMLElement list with max. n elements
+	 */
+	List<XMLElement> selectFirst(String xpath, int n);
+
+	/**
+	 * Lazy variant of selectNodes(xpath)
+	 * <p>For expressions like "//abc[@x='1']", ".//abc" and "descendant::abc" (simple step with boolean predicates only)
+	 * the elements are searched while iterating. The document must not be changed during the iteration.
+	 * 
+	 * @param xpath XPath String
+	 * @return Iterable for use in a for-each loop
+	 */
+	Iterable<XMLElement> selectLazy(String xpath);
+
+	/**
+	 * Canonical content hash of this element and all its descendants
+	 * <p>Namespace prefixes, attribute order, comments and the difference between text and CDATA are ignored.
+	 * If the serialization cache or an index of the document is on, the hash is cached and recomputed
+	 * only for changed parts of the tree.
+	 * 
+	 * @return hash, never 0
+	 */
+	long getContentHash();
+
+	/**
+	 * Compares the canonical content (see getContentHash()) of this element and the given element.
+	 * In contrast to equals() the elements can be in different documents.
+	 * 
+	 * @param other XMLElement
+	 * @return true if both elements have the same name, attributes and content
+	 */
+	boolean contentEquals(XMLElement other);
+
 	/**
 	 * @return inner text of element and all child elements
 	 */
@@ -130,6 +281,36 @@ public interface XMLElement {
 	 */
 	void setText(String text);
 
+	/**
+	 * Sets inner text of element. The text is read in chunks of 64K characters, each becoming a text node.
+	 * So a large text is never held as one String. getText() and the serialization see one text.
+	 * 
+	 * @param text inner text, will not be closed
+	 */
+	void setText(Reader text);
+
+	/**
+	 * Writes the inner text of the element to the writer, same as getText() but without creating one String.
+	 * 
+	 * @param writer Writer, will not be closed
+	 */
+	void writeText(Writer writer);
+
+	/**
+	 * Sets the Base64 encoded bytes as inner text of element. The bytes are read and encoded in chunks.
+	 * 
+	 * @param bytes binary content, will not be closed
+	 */
+	void setBase64(InputStream bytes);
+
+	/**
+	 * Decodes the inner text of the element as Base64 and writes the bytes to the stream.
+	 * Whitespace within the text is ignored.
+	 * 
+	 * @param out OutputStream, will not be closed
+	 */
+	void writeBase64(OutputStream out);
+
 	/**
 	 * Creates a new element with given element name.
 	 * The new element will be appended to this element.
@@ -139,6 +320,15 @@ public interface XMLElement {
 	 */
 	XMLElement add(String elementName);
 
+	/**
+	 * Appends a deep copy of this element to the given parent element.
+	 * The parent may belong to another XMLDocument. No serializing and parsing is involved.
+	 * 
+	 * @param parent new parent element of the copy
+	 * @return copy of this element
+	 */
+	XMLElement copyTo(XMLElement parent);
+
 	/**
 	 * Creates a new element with given element name and given inner text.
 	 * The new element will be appended to this element.
@@ -160,6 +350,33 @@ public interface XMLElement {
 	 */
 	List<String> getArray(String attributeName);
 
+	/**
+	 * Returns an array of all int values of the given attribute of all child elements.
+	 * 
+	 * @param attributeName attribute name
+	 * @param defaultValue value for child elements which do not have the attribute or where it is empty
+	 * @return int values of all child elements
+	 */
+	int[] getIntArray(String attributeName, int defaultValue);
+
+	/**
+	 * Returns an array of all long values of the given attribute of all child elements.
+	 * 
+	 * @param attributeName attribute name
+	 * @param defaultValue value for child elements which do not have the attribute or where it is empty
+	 * @return long values of all child elements
+	 */
+	long[] getLongArray(String attributeName, long defaultValue);
+
+	/**
+	 * Returns an array of all double values of the given attribute of all child elements.
+	 * 
+	 * @param attributeName attribute name
+	 * @param defaultValue value for child elements which do not have the attribute or where it is empty
+	 * @return double values of all child elements
+	 */
+	double[] getDoubleArray(String attributeName, double defaultValue);
+
 	/**
 	 * Returns a map of all attribute name/value pairs of this element.
 	 * <br>There is no special order of the map members.
@@ -203,12 +420,33 @@ public interface XMLElement {
 	/**
 	 * Inserts a new created XML element before a XML element.
 	 * 
-	 * @param beforeIndex index from 0 of the existing element
+	 * @param beforeIndex index from 0 of the existing element.
+	 * If it is the number of child elements the new element will be appended.
 	 * @param newElementName new element name
 	 * @return new XMLElement
+	 * @throws IndexOutOfBoundsException if beforeIndex is negative or greater than the number of child elements
 	 */
 	XMLElement insertBefore(int beforeIndex, String newElementName);
 
+	/**
+	 * Sorts the child elements in place. The sort is stable.
+	 * <p>Text, comments and other nodes between the child elements keep their positions.
+	 * Each element takes the position of the element which was there before.
+	 * The elements are neither serialized nor copied.
+	 * 
+	 * @param comparator defines the new order
+	 */
+	void sortChildren(Comparator<XMLElement> comparator);
+
+	/**
+	 * Moves a child element to another index. The elements between both indexes are shifted by one.
+	 * <p>Text, comments and other nodes between the child elements keep their positions.
+	 * 
+	 * @param from index from 0 of the element to be moved
+	 * @param to index from 0 of the element after moving it
+	 */
+	void moveChild(int from, int to);
+
 	/**
 	 * @param elementName name of the searched XML element
 	 * @param start index from 0
@@ -224,6 +462,16 @@ public interface XMLElement {
 	 */
 	void removeAttribute(String attributeName);
 	
+	/**
+	 * Returns a child element by its index. If the serialization cache or an index of the document is on,
+	 * it takes constant time, also for elements with many children.
+	 * 
+	 * @param index index from 0
+	 * @return child element
+	 * @throws IndexOutOfBoundsException if there's no child element with that index
+	 */
+	XMLElement getChild(int index);
+
 	/**
 	 * Returns number of child elements.
 	 * 
@@ -256,6 +504,14 @@ public interface XMLElement {
 	 */
 	void setCdata(String cdata);
 
+	/**
+	 * Same as setCdata(String), but the content is read in chunks of 64K characters, each becoming
+	 * one or more CDATA nodes. "]]&gt;" is split also if it spans two chunks.
+	 * 
+	 * @param cdata content of new CDATA nodes, will not be closed
+	 */
+	void setCdata(Reader cdata);
+
 	/**
 	 * Adds a new element and sets many attributes.
 	 * 
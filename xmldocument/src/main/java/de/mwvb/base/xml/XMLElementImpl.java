@@ -1,6 +1,13 @@
 package de.mwvb.base.xml;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -8,8 +15,6 @@ import java.util.Map;
 
 import org.dom4j.Attribute;
 import org.dom4j.Document;
-import org.dom4j.DocumentFactory;
-import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 import org.dom4j.Node;
 
@@ -20,7 +25,10 @@ import org.dom4j.Node;
  * @since  2008
  */
 class XMLElementImpl implements XMLElement {
-	private final Element element;
+	private static final XMLQuery CHILD_BY_NAME = XMLQuery.compile("*[name()=$name]");
+	/** number of characters per text node for setText(Reader), setCdata(Reader) and setBase64() */
+	private static final int TEXT_CHUNK_SIZE = 64 * 1024;
+	final Element element;
 
 	XMLElementImpl(final Element pElement) { 
 		element = pElement;
@@ -42,6 +50,30 @@ class XMLElementImpl implements XMLElement {
 		return ret == null ? "" : ret;
 	}
 	
+	@Override
+	public int getInt(final String attributeName, final int defaultValue) {
+		final String value = element.attributeValue(attributeName);
+		return value == null || value.length() == 0 ? defaultValue : Integer.parseInt(value);
+	}
+	
+	@Override
+	public long getLong(final String attributeName, final long defaultValue) {
+		final String value = element.attributeValue(attributeName);
+		return value == null || value.length() == 0 ? defaultValue : Long.parseLong(value);
+	}
+	
+	@Override
+	public double getDouble(final String attributeName, final double defaultValue) {
+		final String value = element.attributeValue(attributeName);
+		return value == null || value.length() == 0 ? defaultValue : Double.parseDouble(value);
+	}
+	
+	@Override
+	public boolean getBoolean(final String attributeName, final boolean defaultValue) {
+		final String value = element.attributeValue(attributeName);
+		return value == null || value.length() == 0 ? defaultValue : "true".equalsIgnoreCase(value);
+	}
+	
 	@Override
 	public String getMultiLineValue(final String pAttributname) {
 		return getValue(pAttributname).replace(NEWLINE, "\n");
@@ -52,6 +84,21 @@ class XMLElementImpl implements XMLElement {
 		element.addAttribute(pAttributname, pValue);
 	}
 	
+	@Override
+	public void setInt(final String attributeName, final int value) {
+		element.addAttribute(attributeName, String.valueOf(value));
+	}
+	
+	@Override
+	public void setLong(final String attributeName, final long value) {
+		element.addAttribute(attributeName, String.valueOf(value));
+	}
+	
+	@Override
+	public void setDouble(final String attributeName, final double value) {
+		element.addAttribute(attributeName, String.valueOf(value));
+	}
+	
 	@Override
 	public void setMultiLineValue(final String pAttributname, final String pValue) {
 		if (pValue == null) {
@@ -71,17 +118,37 @@ class XMLElementImpl implements XMLElement {
 	
 	@Override
 	public List<XMLElement> getChildren() {
-		return getChildElements(element.elements());
+		final ChildIndex ci = childIndex();
+		final List<XMLElement> ret = new ArrayList<XMLElement>(ci.size());
+		for (int i = 0; i < ci.size(); i++) {
+			ret.add(create(ci.get(i)));
+		}
+		return ret;
+	}
+
+	@Override
+	public XMLElement getChild(final int index) {
+		return create(childIndex().get(index));
 	}
 	
 	@Override
 	public int getChildrenCount() {
-		return element.elements().size();
+		return childIndex().size();
+	}
+
+	/**
+	 * @return index of the child elements, for other elements than IndexedElements a new one
+	 */
+	private ChildIndex childIndex() {
+		if (element instanceof IndexedElement) {
+			return ((IndexedElement) element).getChildIndex();
+		}
+		return new ChildIndex(element.content());
 	}
 	
 	@Override
 	public boolean hasChildren() {
-		return element.elements().size() > 0;
+		return getChildrenCount() > 0;
 	}
 	
 	static List<XMLElement> getChildElements(final List<?> list) {
@@ -94,22 +161,140 @@ class XMLElementImpl implements XMLElement {
 	
 	@Override
 	public String getXML() {
-		return element.asXML();
+		final Object token = XMLMonitor.startSave(null);
+		final String ret = element.asXML();
+		XMLMonitor.finishSave(token, null, ret.length());
+		return ret;
 	}
 	
 	@Override
 	public List<XMLElement> selectNodes(final String pXPath) {
-		return getChildElements(element.selectNodes(pXPath));
+		final Object token = XMLMonitor.startQuery(pXPath);
+		List<XMLElement> ret = selectByNameIndex(element.getDocument(), pXPath);
+		if (ret == null) {
+			ret = getChildElements(element.selectNodes(pXPath));
+		}
+		XMLMonitor.finishQuery(token, pXPath, ret.size());
+		return ret;
 	}
 	
 	@Override
 	public XMLElement selectSingleNode(final String pXPath) {
-		final Node node = element.selectSingleNode(pXPath);
-		if (node == null || !(node instanceof Element)) {
+		final Object token = XMLMonitor.startQuery(pXPath);
+		final XMLElement ret;
+		final List<XMLElement> list = selectByNameIndex(element.getDocument(), pXPath);
+		if (list != null) {
+			ret = list.isEmpty() ? null : list.get(0);
+		} else {
+			final Node node = element.selectSingleNode(pXPath);
+			ret = node instanceof Element ? create((Element) node) : null;
+		}
+		XMLMonitor.finishQuery(token, pXPath, ret == null ? 0 : 1);
+		return ret;
+	}
+
+	@Override
+	public long getContentHash() {
+		return ContentHash.hash(element);
+	}
+
+	@Override
+	public boolean contentEquals(final XMLElement other) {
+		return other != null && ContentHash.equal(element, ((XMLElementImpl) other).element);
+	}
+
+	@Override
+	public boolean exists(final String xpath) {
+		return new LazySelection(element, xpath).exists();
+	}
+
+	@Override
+	public int count(final String xpath) {
+		return new LazySelection(element, xpath).count();
+	}
+
+	@Override
+	public List<XMLElement> selectFirst(final String xpath, final int n) {
+		return new LazySelection(element, xpath).first(n);
+	}
+
+	@Override
+	public Iterable<XMLElement> selectLazy(final String xpath) {
+		return new LazySelection(element, xpath);
+	}
+
+	/**
+	 * Evaluates XPath expressions of kind "//elementName" using the element name index.
+	 * 
+	 * @param doc document, can be null
+	 * @param xpath XPath expression
+	 * @return null if the index can not be used
+	 */
+	static List<XMLElement> selectByNameIndex(final Document doc, final String xpath) {
+		if (!(doc instanceof TrackingDocument) || ((TrackingDocument) doc).getNameIndex() == null
+				|| !isDescendantNameQuery(xpath)) {
 			return null;
+		}
+		final List<XMLElement> ret = new ArrayList<XMLElement>();
+		for (Element e : ((TrackingDocument) doc).getNameIndex().get(xpath.substring(2))) {
+			if (e.getNamespaceURI().length() == 0) { // XPath matches names without prefix only in no namespace
+				ret.add(create(e));
+			}
+		}
+		return ret;
+	}
+
+	private static boolean isDescendantNameQuery(final String xpath) {
+		if (xpath.length() < 3 || !xpath.startsWith("//")
+				|| !(Character.isLetter(xpath.charAt(2)) || xpath.charAt(2) == '_')) {
+			return false;
+		}
+		for (int i = 3; i < xpath.length(); i++) {
+			final char c = xpath.charAt(i);
+			if (!(Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public List<XMLElement> getDescendants(final String elementName) {
+		final Document doc = element.getDocument();
+		final ElementNameIndex index = doc instanceof TrackingDocument ? ((TrackingDocument) doc).getNameIndex() : null;
+		final List<XMLElement> ret = new ArrayList<XMLElement>();
+		if (index == null) {
+			collectDescendants(element, elementName, false, ret);
 		} else {
-			return create((Element) node);
+			for (Element e : index.get(elementName)) {
+				if (isAncestor(element, e)) {
+					ret.add(create(e));
+				}
+			}
 		}
+		return ret;
+	}
+
+	static void collectDescendants(final Element e, final String elementName, final boolean includingSelf,
+			final List<XMLElement> ret) {
+		if (includingSelf && e.getName().equals(elementName)) {
+			ret.add(create(e));
+		}
+		for (int i = 0, n = e.nodeCount(); i < n; i++) {
+			final Node node = e.node(i);
+			if (node instanceof Element) {
+				collectDescendants((Element) node, elementName, true, ret);
+			}
+		}
+	}
+
+	private static boolean isAncestor(final Element ancestor, final Element e) {
+		for (Element p = e.getParent(); p != null; p = p.getParent()) {
+			if (p == ancestor) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	@Override
@@ -122,6 +307,19 @@ class XMLElementImpl implements XMLElement {
 		return element.attribute(pIndex).getName();
 	}
 	
+	@Override
+	public String getAttributeValue(final int index) {
+		return element.attribute(index).getValue();
+	}
+	
+	@Override
+	public void forEachAttribute(final XMLAttributeConsumer consumer) {
+		for (int i = 0, n = element.attributeCount(); i < n; i++) {
+			final Attribute attr = element.attribute(i);
+			consumer.accept(attr.getName(), attr.getValue());
+		}
+	}
+	
 	@Override
 	public String getText() {
 		return element.getText();
@@ -131,6 +329,110 @@ class XMLElementImpl implements XMLElement {
 	public void setText(final String pText) {
 		element.setText(pText);
 	}
+
+	@Override
+	public void setText(final Reader text) {
+		try {
+			final char[] buf = new char[TEXT_CHUNK_SIZE];
+			int n = fill(text, buf);
+			element.setText(new String(buf, 0, n));
+			while (n == buf.length) {
+				n = fill(text, buf);
+				if (n > 0) {
+					element.addText(new String(buf, 0, n));
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void writeText(final Writer writer) {
+		try {
+			for (int i = 0, n = element.nodeCount(); i < n; i++) {
+				final Node node = element.node(i);
+				if (isText(node)) {
+					writer.write(node.getText());
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void setBase64(final InputStream bytes) {
+		try {
+			final byte[] buf = new byte[TEXT_CHUNK_SIZE / 4 * 3]; // encodes to TEXT_CHUNK_SIZE characters
+			int n = fill(bytes, buf);
+			element.setText(Base64Codec.encode(buf, 0, n));
+			while (n == buf.length) {
+				n = fill(bytes, buf);
+				if (n > 0) {
+					element.addText(Base64Codec.encode(buf, 0, n));
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void writeBase64(final OutputStream out) {
+		try {
+			final Base64Codec.Decoder decoder = new Base64Codec.Decoder(out);
+			for (int i = 0, n = element.nodeCount(); i < n; i++) {
+				final Node node = element.node(i);
+				if (isText(node)) {
+					decoder.write(node.getText());
+				}
+			}
+			decoder.finish();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** @return true for the node types getText() takes into account */
+	private static boolean isText(final Node node) {
+		final short type = node.getNodeType();
+		return type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE || type == Node.ENTITY_REFERENCE_NODE;
+	}
+
+	/**
+	 * Reads until buf is full or end of stream.
+	 * 
+	 * @return number of chars read
+	 */
+	private static int fill(final Reader reader, final char[] buf) throws IOException {
+		int ret = 0;
+		while (ret < buf.length) {
+			final int n = reader.read(buf, ret, buf.length - ret);
+			if (n < 0) {
+				break;
+			}
+			ret += n;
+		}
+		return ret;
+	}
+
+	/**
+	 * Reads until buf is full or end of stream.
+	 * 
+	 * @return number of bytes read
+	 */
+	private static int fill(final InputStream in, final byte[] buf) throws IOException {
+		int ret = 0;
+		while (ret < buf.length) {
+			final int n = in.read(buf, ret, buf.length - ret);
+			if (n < 0) {
+				break;
+			}
+			ret += n;
+		}
+		return ret;
+	}
 	
 	@Override
 	public XMLElement add(final String pElementName) {
@@ -144,6 +446,19 @@ class XMLElementImpl implements XMLElement {
 		return newElement;
 	}
 	
+	@Override
+	public XMLElement copyTo(final XMLElement parent) {
+		final Element target = ((XMLElementImpl) parent).element;
+		final Element copy;
+		if ((element instanceof TrackingElement) == (target instanceof TrackingElement)) {
+			copy = (Element) element.clone();
+		} else { // same kind of elements as the target document
+			copy = TrackingDocumentFactory.copy(element, TrackingDocumentFactory.of(target));
+		}
+		target.add(copy);
+		return create(copy);
+	}
+	
 	@Override
 	public List<String> getArray(final String pAttributName) {
 		final List<String> array = new ArrayList<String>();
@@ -154,6 +469,39 @@ class XMLElementImpl implements XMLElement {
 		return array;
 	}
 	
+	@Override
+	public int[] getIntArray(final String attributeName, final int defaultValue) {
+		final List<?> children = element.elements();
+		final int[] array = new int[children.size()];
+		for (int i = 0; i < array.length; i++) {
+			final String value = ((Element) children.get(i)).attributeValue(attributeName);
+			array[i] = value == null || value.length() == 0 ? defaultValue : Integer.parseInt(value);
+		}
+		return array;
+	}
+	
+	@Override
+	public long[] getLongArray(final String attributeName, final long defaultValue) {
+		final List<?> children = element.elements();
+		final long[] array = new long[children.size()];
+		for (int i = 0; i < array.length; i++) {
+			final String value = ((Element) children.get(i)).attributeValue(attributeName);
+			array[i] = value == null || value.length() == 0 ? defaultValue : Long.parseLong(value);
+		}
+		return array;
+	}
+	
+	@Override
+	public double[] getDoubleArray(final String attributeName, final double defaultValue) {
+		final List<?> children = element.elements();
+		final double[] array = new double[children.size()];
+		for (int i = 0; i < array.length; i++) {
+			final String value = ((Element) children.get(i)).attributeValue(attributeName);
+			array[i] = value == null || value.length() == 0 ? defaultValue : Double.parseDouble(value);
+		}
+		return array;
+	}
+	
 	@Override
 	public Map<String, String> getMap() {
 		final Map<String, String> map = new HashMap<String, String>();
@@ -167,7 +515,7 @@ class XMLElementImpl implements XMLElement {
 	@Override
 	public void append(final String pXML) {
 		try {
-			final Document doc = DocumentHelper.parseText(pXML);
+			final Document doc = TrackingDocumentFactory.parseText(pXML, TrackingDocumentFactory.of(element));
 			element.add(doc.getRootElement());
 		} catch (Exception e) {
 			throw new RuntimeException(e);
@@ -178,7 +526,7 @@ class XMLElementImpl implements XMLElement {
 	@Override
 	public void insertXMLBefore(int index, final String pXML) {
 		try {
-			final Document doc = DocumentHelper.parseText(pXML);
+			final Document doc = TrackingDocumentFactory.parseText(pXML, TrackingDocumentFactory.of(element));
 			Element ele = doc.getRootElement();
 			element.content().add(index, ele);
 		} catch (Exception e) {
@@ -188,10 +536,13 @@ class XMLElementImpl implements XMLElement {
 	
 	@Override
 	public void removeChildren(int von, int bis) {
-		for (int i = element.elements().size() - 1; i >= 0; i--) {
-			if (i >= von && i <= bis) {
-				element.elements().remove(i);
-			}
+		final List<?> children = element.elements();
+		final List<Element> remove = new ArrayList<Element>();
+		for (int i = Math.max(von, 0); i <= bis && i < children.size(); i++) {
+			remove.add((Element) children.get(i));
+		}
+		for (Element e : remove) {
+			element.remove(e);
 		}
 	}
 
@@ -206,26 +557,75 @@ class XMLElementImpl implements XMLElement {
 	@SuppressWarnings("unchecked")
 	@Override
 	public XMLElement insertBefore(final int pBeforeIndex, final String pNewElementName) {
-		int myBeforeIndex = pBeforeIndex;
-		final Element neu = new DocumentFactory().createElement(pNewElementName);
-		int newIndex = -1;
-		final List<?> c = element.content();
-		for (int i = 0; i < c.size(); i++) {
-			final String n = c.get(i).getClass().getName();
-			if (n.endsWith("Element")) {
-				newIndex++;
-				if (newIndex == myBeforeIndex) {
-					myBeforeIndex = i;
-					break;
-				}
-			}
+		final Element neu = TrackingDocumentFactory.of(element).createElement(pNewElementName);
+		if (element instanceof IndexedElement) {
+			((IndexedElement) element).insertChild(pBeforeIndex, neu);
+			return create(neu);
+		}
+		final ChildIndex ci = childIndex();
+		if (pBeforeIndex < 0 || pBeforeIndex > ci.size()) {
+			throw new IndexOutOfBoundsException("Index: " + pBeforeIndex + ", child elements: " + ci.size());
 		}
-		element.content().add(myBeforeIndex, neu);
+		element.content().add(pBeforeIndex < ci.size() ? ci.position(pBeforeIndex) : element.nodeCount(), neu);
 		return create(neu);
 	}
 
+	@Override
+	public void sortChildren(final Comparator<XMLElement> comparator) {
+		final List<XMLElement> children = getChildren();
+		Collections.sort(children, comparator);
+		final Element[] newOrder = new Element[children.size()];
+		for (int i = 0; i < newOrder.length; i++) {
+			newOrder[i] = ((XMLElementImpl) children.get(i)).element;
+		}
+		reorderChildren(0, newOrder);
+	}
+
+	@Override
+	public void moveChild(final int from, final int to) {
+		final ChildIndex ci = childIndex();
+		final int n = ci.size();
+		if (from < 0 || from >= n || to < 0 || to >= n) {
+			throw new IndexOutOfBoundsException("from: " + from + ", to: " + to + ", size: " + n);
+		}
+		if (from == to) {
+			return;
+		}
+		final int start = Math.min(from, to);
+		final Element[] newOrder = new Element[Math.abs(to - from) + 1];
+		for (int i = 0; i < newOrder.length; i++) {
+			newOrder[i] = ci.get(start + i);
+		}
+		final Element moved = newOrder[from - start];
+		if (from < to) {
+			System.arraycopy(newOrder, 1, newOrder, 0, newOrder.length - 1);
+			newOrder[newOrder.length - 1] = moved;
+		} else {
+			System.arraycopy(newOrder, 0, newOrder, 1, newOrder.length - 1);
+			newOrder[0] = moved;
+		}
+		reorderChildren(start, newOrder);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void reorderChildren(final int start, final Element[] newOrder) {
+		if (element instanceof IndexedElement) {
+			((IndexedElement) element).reorderChildren(start, newOrder);
+			return;
+		}
+		// Each element takes the content position of the element it replaces.
+		final ChildIndex ci = childIndex();
+		final List<Object> content = element.content();
+		for (int i = 0; i < newOrder.length; i++) {
+			content.set(ci.position(start + i), newOrder[i]);
+		}
+	}
+
 	@Override
 	public int indexByName(final String pElementName, final int pStart) {
+		if (element instanceof IndexedElement) {
+			return ((IndexedElement) element).getChildIndex().indexByName(pElementName, pStart);
+		}
 		final List<?> children = element.elements();
 		for (int i = pStart; i < children.size(); i++) {
 			if (((Element) children.get(i)).getName().equals(pElementName)) {
@@ -254,20 +654,40 @@ class XMLElementImpl implements XMLElement {
 
 	@Override
 	public void removeEmptyAttributes() {
-		final List<String> zuLoeschendeAttribute = new ArrayList<String>();
-		for (int i = 0; i < getAttributeCount(); i++) {
-			String name = getAttributeName(i);
-			if ("".equals(getValue(name))) {
-				zuLoeschendeAttribute.add(name);
+		final List<?> attributes = element.attributes();
+		for (int i = attributes.size() - 1; i >= 0; i--) {
+			if (((Attribute) attributes.get(i)).getValue().length() == 0) {
+				attributes.remove(i);
 			}
 		}
-		for (String name : zuLoeschendeAttribute) {
-			removeAttribute(name);
-		}
 	}
 
 	@Override
 	public void setCdata(final String cdata) {
+		addCdata(cdata);
+	}
+
+	@Override
+	public void setCdata(final Reader cdata) {
+		// A chunk boundary within "]]>" needs no special handling: the CDATA sections end before and
+		// start after the boundary, so no section contains "]]>".
+		try {
+			final char[] buf = new char[TEXT_CHUNK_SIZE];
+			int n = fill(cdata, buf);
+			addCdata(new String(buf, 0, n));
+			while (n == buf.length) {
+				n = fill(cdata, buf);
+				if (n > 0) {
+					addCdata(new String(buf, 0, n));
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** Adds CDATA nodes, splits "]]&gt;" */
+	private void addCdata(final String cdata) {
 		final String cdataEndString = "]]>";
 		int start = 0;
 		int o = cdata.indexOf(cdataEndString);
@@ -295,7 +715,7 @@ class XMLElementImpl implements XMLElement {
 	
 	@Override
 	public XMLElement getOrAdd(String elementname) {
-		XMLElement ret = selectSingleNode("*[name()='" + elementname + "']");
+		XMLElement ret = CHILD_BY_NAME.with("name", elementname).selectSingleNode(this);
 		return ret == null ? add(elementname) : ret;
 	}
 
@@ -353,6 +773,14 @@ class XMLElementImpl implements XMLElement {
 	 */
 	@Override
 	public String toString() {
-		return getName() + getMap().toString();
+		final StringBuilder sb = new StringBuilder(getName()).append('{');
+		for (int i = 0, n = element.attributeCount(); i < n; i++) {
+			final Attribute attr = element.attribute(i);
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(attr.getName()).append('=').append(attr.getValue());
+		}
+		return sb.append('}').toString();
 	}
 }
@@ -0,0 +1,288 @@
+package de.mwvb.base.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Loads XML documents via HTTP with timeouts, gzip transfer and a cache.
+ * 
+ * <p>Cached documents are revalidated on each load using the ETag and Last-Modified headers of the
+ * previous response. If the server answers 304 Not Modified the cached bytes are used.
+ * The cache is held in memory (LRU, see setMaxCacheEntries) and optionally in a directory.
+ * 
+ * <p>The XMLDocument constructor uses the default instance for "http:" URLs. The default instance has no cache,
+ * because it is shared by the whole process. Its cache can be switched on with setMaxCacheEntries() and
+ * setCacheDirectory(). A new XMLHttpLoader has a memory cache of 100 documents.
+ * 
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+public class XMLHttpLoader {
+	private static final XMLHttpLoader DEFAULT = createUncached();
+	private int connectTimeout = 10000;
+	private int readTimeout = 30000;
+	private File cacheDirectory;
+	private int maxCacheEntries = 100;
+	private final Map<String, CacheEntry> cache = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, CacheEntry> eldest) {
+			return size() > maxCacheEntries;
+		}
+	};
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong notModified = new AtomicLong();
+	private final AtomicLong downloads = new AtomicLong();
+	private final AtomicLong downloadedBytes = new AtomicLong();
+
+	private static class CacheEntry {
+		String etag;
+		String lastModified;
+		byte[] body;
+	}
+
+	private static XMLHttpLoader createUncached() {
+		final XMLHttpLoader ret = new XMLHttpLoader();
+		ret.maxCacheEntries = 0;
+		return ret;
+	}
+
+	/**
+	 * @return instance used by XMLDocument for "http:" URLs, without cache unless configured
+	 */
+	public static XMLHttpLoader getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @param connectTimeout connect timeout in milliseconds, default is 10 seconds
+	 */
+	public void setConnectTimeout(final int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * @param readTimeout read timeout in milliseconds, default is 30 seconds
+	 */
+	public void setReadTimeout(final int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * @param maxCacheEntries maximum number of documents in the memory cache, default is 100, 0 switches
+	 * the memory cache off
+	 */
+	public synchronized void setMaxCacheEntries(final int maxCacheEntries) {
+		this.maxCacheEntries = maxCacheEntries;
+		cache.clear();
+	}
+
+	/**
+	 * @param cacheDirectory directory for the disk cache, null: no disk cache (default)
+	 */
+	public void setCacheDirectory(final File cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+	}
+
+	/**
+	 * Loads XML document.
+	 * 
+	 * @param url "http:" URL
+	 * @return XMLDocument
+	 */
+	public XMLDocument load(final String url) {
+		final XMLDocument ret = new XMLDocument();
+		try {
+			ret.loadStream(open(url));
+		} catch (IOException e) {
+			throw new RuntimeException("Error loading XML file '" + url + "'!", e);
+		}
+		return ret;
+	}
+
+	/**
+	 * Loads the content of the URL, from the server or from the cache if not modified.
+	 * 
+	 * @param url "http:" URL
+	 * @return content
+	 * @throws IOException -
+	 */
+	public InputStream open(final String url) throws IOException {
+		requests.incrementAndGet();
+		final CacheEntry cached = getCached(url);
+		final HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+		try {
+			conn.setConnectTimeout(connectTimeout);
+			conn.setReadTimeout(readTimeout);
+			conn.setRequestProperty("Accept-Encoding", "gzip");
+			if (cached != null) {
+				if (cached.etag != null) {
+					conn.setRequestProperty("If-None-Match", cached.etag);
+				}
+				if (cached.lastModified != null) {
+					conn.setRequestProperty("If-Modified-Since", cached.lastModified);
+				}
+			}
+			final int status = conn.getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+				notModified.incrementAndGet();
+				return new ByteArrayInputStream(cached.body);
+			} else if (status != HttpURLConnection.HTTP_OK) {
+				throw new IOException("HTTP status " + status + " for " + url);
+			}
+			InputStream in = conn.getInputStream();
+			if ("gzip".equalsIgnoreCase(conn.getContentEncoding())) {
+				in = new GZIPInputStream(in);
+			}
+			final CacheEntry entry = new CacheEntry();
+			entry.body = readFully(in);
+			entry.etag = conn.getHeaderField("ETag");
+			entry.lastModified = conn.getHeaderField("Last-Modified");
+			downloads.incrementAndGet();
+			downloadedBytes.addAndGet(entry.body.length);
+			if (entry.etag != null || entry.lastModified != null) {
+				putCached(url, entry);
+			}
+			return new ByteArrayInputStream(entry.body);
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	/**
+	 * @return number of open() calls
+	 */
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * @return number of loads answered from the cache after 304 Not Modified
+	 */
+	public long getNotModifiedCount() {
+		return notModified.get();
+	}
+
+	/**
+	 * @return number of loads with complete download
+	 */
+	public long getDownloadCount() {
+		return downloads.get();
+	}
+
+	/**
+	 * @return number of downloaded bytes (after gzip decompression)
+	 */
+	public long getDownloadedBytes() {
+		return downloadedBytes.get();
+	}
+
+	/**
+	 * Clears memory cache. The disk cache is not changed.
+	 */
+	public synchronized void clearCache() {
+		cache.clear();
+	}
+
+	private synchronized CacheEntry getCached(final String url) throws IOException {
+		CacheEntry entry = cache.get(url);
+		if (entry == null && cacheDirectory != null) {
+			final File meta = new File(cacheDirectory, cacheFileName(url) + ".properties");
+			final File body = new File(cacheDirectory, cacheFileName(url) + ".xml");
+			if (meta.isFile() && body.isFile()) {
+				final Properties p = new Properties();
+				final InputStream in = new FileInputStream(meta);
+				try {
+					p.load(in);
+				} finally {
+					in.close();
+				}
+				if (url.equals(p.getProperty("url"))) {
+					entry = new CacheEntry();
+					entry.etag = p.getProperty("etag");
+					entry.lastModified = p.getProperty("lastModified");
+					entry.body = readFully(new FileInputStream(body));
+				}
+			}
+		}
+		return entry;
+	}
+
+	private synchronized void putCached(final String url, final CacheEntry entry) throws IOException {
+		if (maxCacheEntries > 0) {
+			cache.put(url, entry);
+		}
+		if (cacheDirectory != null) {
+			cacheDirectory.mkdirs();
+			write(new File(cacheDirectory, cacheFileName(url) + ".xml"), entry.body);
+			final Properties p = new Properties();
+			p.setProperty("url", url);
+			if (entry.etag != null) {
+				p.setProperty("etag", entry.etag);
+			}
+			if (entry.lastModified != null) {
+				p.setProperty("lastModified", entry.lastModified);
+			}
+			final OutputStream out = new FileOutputStream(new File(cacheDirectory, cacheFileName(url) + ".properties"));
+			try {
+				p.store(out, null);
+			} finally {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * @return "xml" + SHA-1 of the URL in hex, so different URLs don't overwrite each other's files
+	 */
+	private static String cacheFileName(final String url) {
+		try {
+			final byte[] hash = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+			final StringBuilder ret = new StringBuilder("xml");
+			for (byte b : hash) {
+				ret.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return ret.toString();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void write(final File file, final byte[] bytes) throws IOException {
+		final OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static byte[] readFully(final InputStream in) throws IOException {
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) >= 0) {
+				out.write(buf, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
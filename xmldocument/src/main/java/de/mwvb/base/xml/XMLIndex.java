@@ -0,0 +1,293 @@
+package de.mwvb.base.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dom4j.Element;
+import org.dom4j.Node;
+
+/**
+ * Secondary index: attribute value to elements
+ * 
+ * <p>Create it with XMLDocument.createIndex(). The index is kept up to date on all changes of the document.
+ * Exact lookups need constant time. Range and prefix queries need a sorted key array which is
+ * built on first use after a change of the key set.
+ * 
+ * <p>The order of the elements with the same attribute value is the document order after creation
+ * or rebuild of the index. Elements added later are appended.
+ * 
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+public class XMLIndex {
+	private final String elementName;
+	private final String attributeName;
+	private final Element root;
+	private final Map<String, List<Element>> map = new HashMap<String, List<Element>>();
+	/** null if it must be rebuilt */
+	private String[] sortedKeys;
+	private int entryCount = 0;
+	private int rebuildCount = 0;
+	final TrackingListener listener = new TrackingListener() {
+		@Override
+		public void elementAdded(final Element element) {
+			addTree(element);
+		}
+
+		@Override
+		public void elementRemoved(final Element element) {
+			removeTree(element);
+		}
+
+		@Override
+		public void nameChanged(final Element element, final String oldName) {
+			if (matches(oldName)) {
+				remove(element.attributeValue(attributeName), element);
+			}
+			add(element);
+		}
+
+		@Override
+		public void attributeChanged(final Element element, final String name, final String oldValue,
+				final String newValue) {
+			if (attributeName.equals(name) && matches(element.getName())) {
+				if (oldValue != null) {
+					remove(oldValue, element);
+				}
+				if (newValue != null) {
+					put(newValue, element);
+				}
+			}
+		}
+
+		@Override
+		public void childrenReordered(final Element parent) {
+			// The order of elements with the same value is only guaranteed after creation or rebuild.
+		}
+	};
+
+	/**
+	 * @param root root element of the document
+	 * @param elementName name of the elements to be indexed, "*" for all elements
+	 * @param attributeName name of the attribute whose values are the keys
+	 */
+	XMLIndex(final Element root, final String elementName, final String attributeName) {
+		if (elementName == null || attributeName == null) {
+			throw new IllegalArgumentException("XMLIndex arguments must not be null!");
+		}
+		this.root = root;
+		this.elementName = elementName;
+		this.attributeName = attributeName;
+		rebuild();
+	}
+
+	/**
+	 * @return name of the indexed elements, "*" for all elements
+	 */
+	public String getElementName() {
+		return elementName;
+	}
+
+	/**
+	 * @return name of the attribute whose values are the keys
+	 */
+	public String getAttributeName() {
+		return attributeName;
+	}
+
+	/**
+	 * Returns the first element with the given attribute value.
+	 * 
+	 * @param value attribute value
+	 * @return XMLElement or null if no element was found
+	 */
+	public XMLElement get(final String value) {
+		final List<Element> list = map.get(value);
+		return list == null ? null : XMLElementImpl.create(list.get(0));
+	}
+
+	/**
+	 * Returns all elements with the given attribute value.
+	 * 
+	 * @param value attribute value
+	 * @return XMLElement list, empty if no element was found
+	 */
+	public List<XMLElement> getAll(final String value) {
+		final List<Element> list = map.get(value);
+		if (list == null) {
+			return new ArrayList<XMLElement>();
+		}
+		return XMLElementImpl.getChildElements(list);
+	}
+
+	/**
+	 * Returns all elements whose attribute value is in the given range. Attribute values are compared as Strings.
+	 * 
+	 * @param fromValue lowest attribute value (inclusive), null for no lower limit
+	 * @param toValue highest attribute value (exclusive), null for no upper limit
+	 * @return XMLElement list ordered by attribute value
+	 */
+	public List<XMLElement> getRange(final String fromValue, final String toValue) {
+		final String[] keys = getSortedKeys();
+		final int from = fromValue == null ? 0 : position(keys, fromValue);
+		final int to = toValue == null ? keys.length : position(keys, toValue);
+		final List<XMLElement> ret = new ArrayList<XMLElement>();
+		for (int i = from; i < to; i++) {
+			for (Element e : map.get(keys[i])) {
+				ret.add(XMLElementImpl.create(e));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns all elements whose attribute value starts with the given prefix.
+	 * 
+	 * @param prefix beginning of attribute value
+	 * @return XMLElement list ordered by attribute value
+	 */
+	public List<XMLElement> getByPrefix(final String prefix) {
+		final String[] keys = getSortedKeys();
+		final List<XMLElement> ret = new ArrayList<XMLElement>();
+		for (int i = position(keys, prefix); i < keys.length && keys[i].startsWith(prefix); i++) {
+			for (Element e : map.get(keys[i])) {
+				ret.add(XMLElementImpl.create(e));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return number of distinct attribute values
+	 */
+	public int getKeyCount() {
+		return map.size();
+	}
+
+	/**
+	 * @return number of indexed elements
+	 */
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	/**
+	 * @return number of complete index builds, 1 after creation
+	 */
+	public int getRebuildCount() {
+		return rebuildCount;
+	}
+
+	/**
+	 * Rough estimation of the heap memory used by this index. Attribute values are shared with the document
+	 * and therefore not counted.
+	 * 
+	 * @return bytes
+	 */
+	public long getEstimatedMemory() {
+		final long perKey = 32 /* map entry */ + 40 /* ArrayList */ + 16 /* array header */;
+		final long perEntry = 8 /* reference in list */;
+		long bytes = 64 + map.size() * (perKey + 8 /* table slot */) + entryCount * perEntry;
+		if (sortedKeys != null) {
+			bytes += 16 + 8L * sortedKeys.length;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Builds the index from scratch. Normally this is not necessary because the index is kept up to date.
+	 */
+	public void rebuild() {
+		map.clear();
+		sortedKeys = null;
+		entryCount = 0;
+		if (root != null) {
+			addTree(root);
+		}
+		rebuildCount++;
+	}
+
+	private boolean matches(final String name) {
+		return "*".equals(elementName) || elementName.equals(name);
+	}
+
+	private void addTree(final Element element) {
+		add(element);
+		for (int i = 0, n = element.nodeCount(); i < n; i++) {
+			final Node node = element.node(i);
+			if (node instanceof Element) {
+				addTree((Element) node);
+			}
+		}
+	}
+
+	private void removeTree(final Element element) {
+		if (matches(element.getName())) {
+			remove(element.attributeValue(attributeName), element);
+		}
+		for (int i = 0, n = element.nodeCount(); i < n; i++) {
+			final Node node = element.node(i);
+			if (node instanceof Element) {
+				removeTree((Element) node);
+			}
+		}
+	}
+
+	private void add(final Element element) {
+		if (matches(element.getName())) {
+			final String value = element.attributeValue(attributeName);
+			if (value != null) {
+				put(value, element);
+			}
+		}
+	}
+
+	private void put(final String value, final Element element) {
+		List<Element> list = map.get(value);
+		if (list == null) {
+			list = new ArrayList<Element>(1);
+			map.put(value, list);
+			sortedKeys = null;
+		}
+		list.add(element);
+		entryCount++;
+	}
+
+	private void remove(final String value, final Element element) {
+		if (value == null) {
+			return;
+		}
+		final List<Element> list = map.get(value);
+		if (list != null && list.remove(element)) {
+			entryCount--;
+			if (list.isEmpty()) {
+				map.remove(value);
+				sortedKeys = null;
+			}
+		}
+	}
+
+	private String[] getSortedKeys() {
+		if (sortedKeys == null) {
+			final String[] keys = map.keySet().toArray(new String[map.size()]);
+			Arrays.sort(keys);
+			sortedKeys = keys;
+		}
+		return sortedKeys;
+	}
+
+	/** @return index of the first key that is not less than value */
+	private static int position(final String[] keys, final String value) {
+		final int i = Arrays.binarySearch(keys, value);
+		return i >= 0 ? i : -(i + 1);
+	}
+
+	@Override
+	public String toString() {
+		return "XMLIndex " + elementName + "/@" + attributeName + ": " + map.size() + " keys, " + entryCount
+				+ " entries";
+	}
+}
@@ -0,0 +1,218 @@
+package de.mwvb.base.xml;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.dom4j.Branch;
+
+/**
+ * Instrumentation hook for document loads, XPath evaluations and serializations
+ *
+ * <p>A subclass is installed with install(). Each operation calls xxxStarted() before and xxxFinished()
+ * after the work. If xxxStarted() returns null the operation is not monitored and xxxFinished() is not called.
+ * So a monitor can switch events on and off, e.g. the JFR adapter returns null if the event is disabled
+ * in the JFR settings. Figures that are expensive to compute (statistics) are only computed for monitored operations.
+ * If no monitor is installed the only cost is a null check.
+ * <p>Durations are not passed, the monitor measures them between xxxStarted() and xxxFinished().
+ * For loads the work ends with loadParsed(), the statistics passed to loadFinished() are computed afterwards.
+ * xxxFinished() is not called if the operation fails.
+ * <p>Implementations must be thread-safe.
+ *
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+public abstract class XMLMonitor {
+	/** source type of XMLDocument(String) */
+	public static final String STRING = "string";
+	/** source type of loadFile and loadFileLazy */
+	public static final String FILE = "file";
+	/** source type of loadStream, loadResource and URLs */
+	public static final String STREAM = "stream";
+	/** source type of XMLDocument(org.w3c.dom.Document) */
+	public static final String W3C = "w3c";
+	private static volatile XMLMonitor monitor;
+
+	/**
+	 * @param m monitor, null to uninstall
+	 */
+	public static void install(final XMLMonitor m) {
+		monitor = m;
+	}
+
+	/**
+	 * @return installed monitor, null if there's none
+	 */
+	public static XMLMonitor getInstalled() {
+		return monitor;
+	}
+
+	/**
+	 * @param sourceType STRING, FILE, STREAM or W3C
+	 * @return token passed to loadFinished(), null if the load is not monitored
+	 */
+	protected Object loadStarted(final String sourceType) {
+		return null;
+	}
+
+	/**
+	 * Is called when the document has been built, before the statistics for loadFinished() are computed.
+	 * 
+	 * @param token return value of loadStarted()
+	 */
+	protected void loadParsed(final Object token) {
+	}
+
+	/**
+	 * @param token return value of loadStarted()
+	 * @param sourceType STRING, FILE, STREAM or W3C
+	 * @param size number of bytes (characters for STRING), -1 if unknown
+	 * @param statistics statistics of the loaded document
+	 */
+	protected void loadFinished(final Object token, final String sourceType, final long size,
+			final XMLStatistics statistics) {
+	}
+
+	/**
+	 * @param xpath XPath expression
+	 * @return token passed to queryFinished(), null if the evaluation is not monitored
+	 */
+	protected Object queryStarted(final String xpath) {
+		return null;
+	}
+
+	/**
+	 * @param token return value of queryStarted()
+	 * @param xpath XPath expression
+	 * @param resultSize number of selected elements
+	 */
+	protected void queryFinished(final Object token, final String xpath, final int resultSize) {
+	}
+
+	/**
+	 * @param target file name, null for getXML()
+	 * @return token passed to saveFinished(), null if the serialization is not monitored
+	 */
+	protected Object saveStarted(final String target) {
+		return null;
+	}
+
+	/**
+	 * @param token return value of saveStarted()
+	 * @param target file name, null for getXML()
+	 * @param size number of bytes written to the file, number of characters for getXML()
+	 */
+	protected void saveFinished(final Object token, final String target, final long size) {
+	}
+
+	// Methods used by the library. They remember the monitor, so install() during an operation doesn't matter.
+
+	static Object startLoad(final String sourceType) {
+		final XMLMonitor m = monitor;
+		return m == null ? null : Token.of(m, m.loadStarted(sourceType));
+	}
+
+	/**
+	 * @param token return value of startLoad()
+	 * @param stream stream to be parsed
+	 * @return stream counting the bytes read if the load is monitored, otherwise stream
+	 */
+	static InputStream countBytes(final Object token, final InputStream stream) {
+		if (token == null || stream == null) {
+			return stream;
+		}
+		final CountingInputStream ret = new CountingInputStream(stream);
+		((Token) token).counter = ret;
+		return ret;
+	}
+
+	/**
+	 * @param token return value of startLoad()
+	 * @param sourceType source type
+	 * @param size number of bytes or characters, -1 if unknown or counted by countBytes()
+	 * @param doc loaded document
+	 */
+	static void finishLoad(final Object token, final String sourceType, final long size, final Branch doc) {
+		if (token != null) {
+			final Token t = (Token) token;
+			t.monitor.loadParsed(t.data);
+			t.monitor.loadFinished(t.data, sourceType, size < 0 && t.counter != null ? t.counter.count : size,
+					XMLStatistics.compute(doc));
+		}
+	}
+
+	static Object startQuery(final String xpath) {
+		final XMLMonitor m = monitor;
+		return m == null ? null : Token.of(m, m.queryStarted(xpath));
+	}
+
+	static void finishQuery(final Object token, final String xpath, final int resultSize) {
+		if (token != null) {
+			((Token) token).monitor.queryFinished(((Token) token).data, xpath, resultSize);
+		}
+	}
+
+	static Object startSave(final String target) {
+		final XMLMonitor m = monitor;
+		return m == null ? null : Token.of(m, m.saveStarted(target));
+	}
+
+	static void finishSave(final Object token, final String target, final long size) {
+		if (token != null) {
+			((Token) token).monitor.saveFinished(((Token) token).data, target, size);
+		}
+	}
+
+	private static class Token {
+		private final XMLMonitor monitor;
+		private final Object data;
+		private CountingInputStream counter;
+
+		private Token(final XMLMonitor monitor, final Object data) {
+			this.monitor = monitor;
+			this.data = data;
+		}
+
+		static Token of(final XMLMonitor monitor, final Object data) {
+			return data == null ? null : new Token(monitor, data);
+		}
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+		private long count = 0;
+
+		CountingInputStream(final InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int ret = super.read();
+			if (ret >= 0) {
+				count++;
+			}
+			return ret;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			final int ret = super.read(b, off, len);
+			if (ret > 0) {
+				count += ret;
+			}
+			return ret;
+		}
+
+		@Override
+		public long skip(final long n) throws IOException {
+			final long ret = super.skip(n);
+			count += ret;
+			return ret;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,248 @@
+package de.mwvb.base.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.dom4j.Element;
+import org.dom4j.ElementHandler;
+import org.dom4j.ElementPath;
+import org.dom4j.Namespace;
+import org.dom4j.io.SAXReader;
+
+/**
+ * Parallel processing of the records of a large XML input
+ * 
+ * <p>The calling thread reads the input and cuts out each element matching the record path.
+ * Each record is processed by a worker thread as an XMLElement of its own small document.
+ * The results are passed to the sink, which is never called concurrently.
+ * Records already processed are not kept in memory.
+ * 
+ * <p>At most maxInFlight records are read but not yet written to the sink. If that limit is reached,
+ * reading waits for the workers.
+ * 
+ * @author Marcus Warm
+ * @since 0.3.0
+ * @param <R> result type
+ */
+public class XMLPipeline<R> {
+	private static final Object NULL_RESULT = new Object();
+	private final String recordPath;
+	private final Processor<R> processor;
+	private final Sink<R> sink;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int maxInFlight = 0;
+	private boolean ordered = true;
+	// state of the current run
+	private final Object lock = new Object();
+	private Semaphore inFlight;
+	private final Map<Long, Object> pending = new HashMap<Long, Object>();
+	private long nextToWrite;
+	private volatile Throwable error;
+
+	/**
+	 * Transforms a record into a result. Is called concurrently.
+	 * 
+	 * @param <R> result type
+	 */
+	public interface Processor<R> {
+
+		/**
+		 * @param record record element
+		 * @return result, null: nothing is written to the sink
+		 * @throws Exception -
+		 */
+		R process(XMLElement record) throws Exception;
+	}
+
+	/**
+	 * Receives the results, e.g. for writing them to an output file. Is not called concurrently.
+	 * 
+	 * @param <R> result type
+	 */
+	public interface Sink<R> {
+
+		/**
+		 * @param result result of Processor, not null
+		 * @throws Exception -
+		 */
+		void write(R result) throws Exception;
+	}
+
+	/**
+	 * @param recordPath absolute path of the record elements, e.g. "/catalog/product"
+	 * @param processor transforms the records
+	 * @param sink receives the results
+	 */
+	public XMLPipeline(final String recordPath, final Processor<R> processor, final Sink<R> sink) {
+		if (recordPath == null || processor == null || sink == null) {
+			throw new IllegalArgumentException("XMLPipeline arguments must not be null!");
+		}
+		this.recordPath = recordPath;
+		this.processor = processor;
+		this.sink = sink;
+	}
+
+	/**
+	 * @param threads number of worker threads, default is number of processors
+	 * @return this
+	 */
+	public XMLPipeline<R> threads(final int threads) {
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * @param maxInFlight maximum number of records that have been read but whose results have not been written yet.
+	 * Default is 4 * threads.
+	 * @return this
+	 */
+	public XMLPipeline<R> maxInFlight(final int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+		return this;
+	}
+
+	/**
+	 * @param ordered true: results are written in record order (default), false: results are written as soon as
+	 * they are available
+	 * @return this
+	 */
+	public XMLPipeline<R> ordered(final boolean ordered) {
+		this.ordered = ordered;
+		return this;
+	}
+
+	/**
+	 * Reads the input and processes all records. Returns after all results have been written to the sink.
+	 * <p>If a Processor or the Sink throws an exception, reading is stopped and the exception is rethrown
+	 * wrapped in a RuntimeException.
+	 * 
+	 * @param stream XML input, will be closed
+	 */
+	public void run(final InputStream stream) {
+		final int max = maxInFlight > 0 ? maxInFlight : 4 * threads;
+		inFlight = new Semaphore(max);
+		pending.clear();
+		nextToWrite = 0;
+		error = null;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final SAXReader r = TrackingDocumentFactory.createReader();
+			r.addHandler(recordPath, new ElementHandler() {
+				private long sequence = 0;
+
+				@Override
+				public void onStart(final ElementPath path) {
+				}
+
+				@Override
+				public void onEnd(final ElementPath path) {
+					final Element record = path.getCurrent();
+					final Element parent = record.getParent();
+					record.detach();
+					if (parent != null) {
+						removeText(parent); // whitespace between the records
+					}
+					TrackingDocumentFactory.PLAIN.createDocument(record);
+					submit(executor, record, sequence++);
+				}
+			});
+			r.read(stream);
+			inFlight.acquire(max); // wait for the workers
+		} catch (Exception e) {
+			if (error == null) {
+				error = e;
+			}
+		} finally {
+			executor.shutdownNow();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS); // no sink call after run() has returned
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			try {
+				stream.close();
+			} catch (IOException ignored) {
+			}
+		}
+		if (error != null) {
+			throw new RuntimeException("Error in XMLPipeline", error);
+		}
+	}
+
+	/**
+	 * Removes text, comments and processing instructions. Namespace declarations and elements stay.
+	 */
+	private static void removeText(final Element parent) {
+		for (Iterator<?> iter = parent.content().iterator(); iter.hasNext();) {
+			final Object node = iter.next();
+			if (!(node instanceof Element) && !(node instanceof Namespace)) {
+				iter.remove();
+			}
+		}
+	}
+
+	private void submit(final ExecutorService executor, final Element record, final long sequence) {
+		if (error != null) {
+			throw new RuntimeException("Reading aborted because of an error", error);
+		}
+		try {
+			inFlight.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				R result = null;
+				try {
+					if (error == null) {
+						result = processor.process(XMLElementImpl.create(record));
+					}
+				} catch (Throwable e) {
+					error = e;
+				}
+				completed(sequence, result);
+			}
+		});
+	}
+
+	/**
+	 * Passes result to the sink. The permit of each record is released exactly once.
+	 */
+	private void completed(final long sequence, final R result) {
+		synchronized (lock) {
+			if (!ordered) {
+				write(result);
+				return;
+			}
+			pending.put(Long.valueOf(sequence), result == null ? NULL_RESULT : result);
+			Object next;
+			while ((next = pending.remove(Long.valueOf(nextToWrite))) != null) {
+				nextToWrite++;
+				@SuppressWarnings("unchecked")
+				final R r = next == NULL_RESULT ? null : (R) next;
+				write(r);
+			}
+		}
+	}
+
+	private void write(final R result) {
+		try {
+			if (result != null && error == null) {
+				sink.write(result);
+			}
+		} catch (Throwable e) {
+			error = e;
+		} finally {
+			inFlight.release();
+		}
+	}
+}
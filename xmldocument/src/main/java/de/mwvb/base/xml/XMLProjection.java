@@ -0,0 +1,262 @@
+package de.mwvb.base.xml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Set of paths to keep while loading a document
+ *
+ * <p>A path is an absolute location path of element names, e.g. "/catalog/product/price". The last step can be
+ * an attribute, e.g. "/catalog/product/@sku". "*" matches any element name and "@*" matches any attribute.
+ * Names are compared with the qualified name as written in the document (incl. prefix).
+ * Predicates and "//" are not supported.
+ * <p>An element matching a path is kept with all its attributes and its complete content. An attribute matching
+ * a path is kept, the other attributes of its element are discarded. The ancestors of kept nodes are kept as
+ * skeleton: the elements without attributes (unless kept by another path), text, comments and processing instructions.
+ * The root element is always kept. All other subtrees are discarded during the SAX pass, so they are never built.
+ * <p>An XMLProjection is immutable and can be used for any number of loads in parallel.
+ *
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+public class XMLProjection {
+	private static final String[] LEXICAL_HANDLER = { "http://xml.org/sax/properties/lexical-handler",
+			"http://xml.org/sax/handlers/LexicalHandler" };
+	private final List<String> paths;
+	/** element steps of each path */
+	private final String[][] steps;
+	/** attribute name of each path, null if the path selects an element */
+	private final String[] attributes;
+
+	private XMLProjection(final String[] paths) {
+		this.paths = Collections.unmodifiableList(Arrays.asList(paths.clone()));
+		steps = new String[paths.length][];
+		attributes = new String[paths.length];
+		for (int i = 0; i < paths.length; i++) {
+			final String path = paths[i].trim();
+			if (!path.startsWith("/") || path.startsWith("//")) {
+				throw new IllegalArgumentException("Projection path must be an absolute path: " + path);
+			}
+			final List<String> list = new ArrayList<String>(Arrays.asList(path.substring(1).split("/", -1)));
+			final String last = list.get(list.size() - 1);
+			if (last.startsWith("@")) {
+				attributes[i] = last.substring(1);
+				list.remove(list.size() - 1);
+			}
+			for (String step : list) {
+				if (step.length() == 0 || step.indexOf('@') >= 0 || step.indexOf('[') >= 0) {
+					throw new IllegalArgumentException("Unsupported step in projection path: " + path);
+				}
+			}
+			if (list.isEmpty() || (attributes[i] != null && attributes[i].length() == 0)) {
+				throw new IllegalArgumentException("Unsupported projection path: " + path);
+			}
+			steps[i] = list.toArray(new String[list.size()]);
+		}
+	}
+
+	/**
+	 * @param paths paths to keep, e.g. "/catalog/product/@sku", "/catalog/product/price"
+	 * @return XMLProjection
+	 */
+	public static XMLProjection of(final String... paths) {
+		if (paths == null || paths.length == 0) {
+			throw new IllegalArgumentException("XMLProjection needs at least one path!");
+		}
+		return new XMLProjection(paths);
+	}
+
+	/**
+	 * @return paths to keep
+	 */
+	public List<String> getPaths() {
+		return paths;
+	}
+
+	@Override
+	public String toString() {
+		return paths.toString();
+	}
+
+	/**
+	 * @return new filter for one SAX pass, must be installed with SAXReader.setXMLFilter()
+	 */
+	XMLFilterImpl createFilter() {
+		return new ProjectionFilter();
+	}
+
+	private static boolean matches(final String pattern, final String qName) {
+		return "*".equals(pattern) || pattern.equals(qName);
+	}
+
+	/**
+	 * Passes the SAX events of kept nodes to the content handler.
+	 * Lexical events (comments, CDATA) are filtered by wrapping the lexical handler.
+	 */
+	private class ProjectionFilter extends XMLFilterImpl implements LexicalHandler {
+		/** indexes of the paths that can match descendants, one entry per open skeleton element */
+		private final List<int[]> alive = new ArrayList<int[]>();
+		/** > 0: inside a discarded subtree */
+		private int dropDepth = 0;
+		/** > 0: inside a kept subtree */
+		private int keepDepth = 0;
+		private LexicalHandler lexicalHandler;
+
+		@Override
+		public void startElement(final String uri, final String localName, final String qName, final Attributes atts)
+				throws SAXException {
+			if (dropDepth > 0) {
+				dropDepth++;
+				return;
+			}
+			if (keepDepth > 0) {
+				keepDepth++;
+				super.startElement(uri, localName, qName, atts);
+				return;
+			}
+			final int depth = alive.size();
+			final int[] candidates = depth == 0 ? null : alive.get(depth - 1);
+			final int n = candidates == null ? steps.length : candidates.length;
+			final List<String> keptAttributes = new ArrayList<String>();
+			final int[] next = new int[n];
+			int nextSize = 0;
+			boolean matched = false;
+			for (int c = 0; c < n; c++) {
+				final int i = candidates == null ? c : candidates[c];
+				if (!matches(steps[i][depth], qName)) {
+					continue;
+				}
+				matched = true;
+				if (steps[i].length > depth + 1) {
+					next[nextSize++] = i;
+				} else if (attributes[i] == null) {
+					keepDepth = 1;
+					super.startElement(uri, localName, qName, atts);
+					return;
+				} else {
+					keptAttributes.add(attributes[i]);
+				}
+			}
+			if (!matched && depth > 0) {
+				dropDepth = 1;
+				return;
+			}
+			final AttributesImpl projected = new AttributesImpl();
+			for (int a = 0; a < atts.getLength(); a++) {
+				for (String name : keptAttributes) {
+					if (matches(name, atts.getQName(a))) {
+						projected.addAttribute(atts.getURI(a), atts.getLocalName(a), atts.getQName(a), atts.getType(a),
+								atts.getValue(a));
+						break;
+					}
+				}
+			}
+			alive.add(Arrays.copyOf(next, nextSize));
+			super.startElement(uri, localName, qName, projected);
+		}
+
+		@Override
+		public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+			if (dropDepth > 0) {
+				dropDepth--;
+				return;
+			}
+			if (keepDepth > 0) {
+				keepDepth--;
+			} else {
+				alive.remove(alive.size() - 1);
+			}
+			super.endElement(uri, localName, qName);
+		}
+
+		/** @return true if non-element nodes at the current position are kept */
+		private boolean keepContent() {
+			return keepDepth > 0 || (dropDepth == 0 && alive.isEmpty());
+		}
+
+		@Override
+		public void characters(final char[] ch, final int start, final int length) throws SAXException {
+			if (keepDepth > 0) {
+				super.characters(ch, start, length);
+			}
+		}
+
+		@Override
+		public void ignorableWhitespace(final char[] ch, final int start, final int length) throws SAXException {
+			if (keepDepth > 0) {
+				super.ignorableWhitespace(ch, start, length);
+			}
+		}
+
+		@Override
+		public void processingInstruction(final String target, final String data) throws SAXException {
+			if (keepContent()) {
+				super.processingInstruction(target, data);
+			}
+		}
+
+		@Override
+		public void setProperty(final String name, final Object value)
+				throws SAXNotRecognizedException, SAXNotSupportedException {
+			for (String p : LEXICAL_HANDLER) {
+				if (p.equals(name)) {
+					lexicalHandler = (LexicalHandler) value;
+					super.setProperty(name, value == null ? null : this);
+					return;
+				}
+			}
+			super.setProperty(name, value);
+		}
+
+		@Override
+		public void comment(final char[] ch, final int start, final int length) throws SAXException {
+			if (keepContent()) {
+				lexicalHandler.comment(ch, start, length);
+			}
+		}
+
+		@Override
+		public void startCDATA() throws SAXException {
+			if (keepDepth > 0) {
+				lexicalHandler.startCDATA();
+			}
+		}
+
+		@Override
+		public void endCDATA() throws SAXException {
+			if (keepDepth > 0) {
+				lexicalHandler.endCDATA();
+			}
+		}
+
+		@Override
+		public void startDTD(final String name, final String publicId, final String systemId) throws SAXException {
+			lexicalHandler.startDTD(name, publicId, systemId);
+		}
+
+		@Override
+		public void endDTD() throws SAXException {
+			lexicalHandler.endDTD();
+		}
+
+		@Override
+		public void startEntity(final String name) throws SAXException {
+			lexicalHandler.startEntity(name);
+		}
+
+		@Override
+		public void endEntity(final String name) throws SAXException {
+			lexicalHandler.endEntity(name);
+		}
+	}
+}
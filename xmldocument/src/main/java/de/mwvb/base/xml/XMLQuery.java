@@ -0,0 +1,232 @@
+package de.mwvb.base.xml;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dom4j.Element;
+import org.dom4j.InvalidXPathException;
+import org.dom4j.Node;
+import org.dom4j.xpath.DefaultNamespaceContext;
+import org.jaxen.Context;
+import org.jaxen.ContextSupport;
+import org.jaxen.JaxenException;
+import org.jaxen.SimpleVariableContext;
+import org.jaxen.XPathFunctionContext;
+import org.jaxen.dom4j.Dom4jXPath;
+import org.jaxen.dom4j.DocumentNavigator;
+import org.jaxen.function.BooleanFunction;
+
+/**
+ * Prepared XPath query with variables
+ *
+ * <p>The XPath expression is compiled once. Values are bound to variables for each call, so they need not be
+ * quoted and the compiled expression can be reused for all values. Example:
+ * <pre>
+ * private static final XMLQuery BY_NAME = XMLQuery.compile("//person[@surname=$name]");
+ * ...
+ * XMLElement e = BY_NAME.with("name", "O'Neill").selectSingleNode(dok);
+ * </pre>
+ *
+ * <p>XMLQuery objects are immutable and can be shared across threads. with() returns a new object.
+ * <p>Variable values can be String, Number, Boolean or XMLElement. Other objects are converted using toString().
+ * <p>Expressions of kind "//step", ".//step" and "descendant::step" with boolean predicates only
+ * stop searching as soon as the result is known (see XMLDocument.exists()).
+ *
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+public class XMLQuery {
+	private final String xpath;
+	private final Dom4jXPath compiled;
+	/** compiled "self::" + step, null if the expression is not a simple descendant search */
+	private final Dom4jXPath step;
+	private final Map<String, Object> variables;
+
+	private XMLQuery(final String xpath, final Dom4jXPath compiled, final Dom4jXPath step,
+			final Map<String, Object> variables) {
+		this.xpath = xpath;
+		this.compiled = compiled;
+		this.step = step;
+		this.variables = variables;
+	}
+
+	/**
+	 * Compiles a XPath expression.
+	 *
+	 * @param xpath XPath String, variables are referenced using $name, e.g. "//*[@id=$id]"
+	 * @return XMLQuery without bound variables
+	 */
+	public static XMLQuery compile(final String xpath) {
+		final String s = LazySelection.getStep(xpath, true);
+		try {
+			return new XMLQuery(xpath, new Dom4jXPath(xpath), s == null ? null : new Dom4jXPath("self::" + s),
+					Collections.<String, Object>emptyMap());
+		} catch (JaxenException e) {
+			throw new InvalidXPathException(xpath, e.getMessage());
+		}
+	}
+
+	/**
+	 * Binds a value to a variable.
+	 *
+	 * @param name variable name without "$"
+	 * @param value String, Number, Boolean or XMLElement
+	 * @return new XMLQuery with all variables of this XMLQuery and the given variable
+	 */
+	public XMLQuery with(final String name, final Object value) {
+		final Map<String, Object> vars = new HashMap<String, Object>(variables);
+		vars.put(name, convert(value));
+		return new XMLQuery(xpath, compiled, step, vars);
+	}
+
+	private static Object convert(final Object value) {
+		if (value instanceof String || value instanceof Boolean || value instanceof Double) {
+			return value;
+		} else if (value instanceof Number) {
+			return Double.valueOf(((Number) value).doubleValue());
+		} else if (value instanceof XMLElement) {
+			return Collections.singletonList(((XMLElementImpl) value).element);
+		} else if (value == null) {
+			throw new IllegalArgumentException("XMLQuery variable value must not be null!");
+		}
+		return value.toString();
+	}
+
+	/**
+	 * @param dok XMLDocument
+	 * @return selected elements in document order
+	 */
+	public List<XMLElement> selectNodes(final XMLDocument dok) {
+		return select(dok.getDom4jDocument());
+	}
+
+	/**
+	 * @param context context element for relative expressions
+	 * @return selected elements in document order
+	 */
+	public List<XMLElement> selectNodes(final XMLElement context) {
+		return select(((XMLElementImpl) context).element);
+	}
+
+	/**
+	 * @param dok XMLDocument
+	 * @return first selected element or null
+	 */
+	public XMLElement selectSingleNode(final XMLDocument dok) {
+		return first(selection(dok.getDom4jDocument()));
+	}
+
+	/**
+	 * @param context context element for relative expressions
+	 * @return first selected element or null
+	 */
+	public XMLElement selectSingleNode(final XMLElement context) {
+		return first(selection(((XMLElementImpl) context).element));
+	}
+
+	/**
+	 * @param dok XMLDocument
+	 * @return true if at least one element is selected
+	 */
+	public boolean exists(final XMLDocument dok) {
+		return selection(dok.getDom4jDocument()).exists();
+	}
+
+	/**
+	 * @param context context element for relative expressions
+	 * @return true if at least one element is selected
+	 */
+	public boolean exists(final XMLElement context) {
+		return selection(((XMLElementImpl) context).element).exists();
+	}
+
+	/**
+	 * @param dok XMLDocument
+	 * @return number of selected elements
+	 */
+	public int count(final XMLDocument dok) {
+		return selection(dok.getDom4jDocument()).count();
+	}
+
+	/**
+	 * @param context context element for relative expressions
+	 * @return number of selected elements
+	 */
+	public int count(final XMLElement context) {
+		return selection(((XMLElementImpl) context).element).count();
+	}
+
+	/**
+	 * @return XPath String
+	 */
+	public String getXPath() {
+		return xpath;
+	}
+
+	@Override
+	public String toString() {
+		return variables.isEmpty() ? xpath : xpath + " " + variables;
+	}
+
+	private List<XMLElement> select(final Node context) {
+		final Object token = XMLMonitor.startQuery(xpath);
+		final List<XMLElement> ret = XMLElementImpl.getChildElements(evaluate(context));
+		XMLMonitor.finishQuery(token, xpath, ret.size());
+		return ret;
+	}
+
+	private static XMLElement first(final LazySelection selection) {
+		final List<XMLElement> ret = selection.first(1);
+		return ret.isEmpty() ? null : ret.get(0);
+	}
+
+	private LazySelection selection(final Node context) {
+		return new LazySelection(xpath, step == null ? null : LazySelection.getStart(context, xpath)) {
+			/** steps don't contain namespace prefixes, so one context is enough for all matches() calls */
+			private ContextSupport support;
+
+			@Override
+			protected List<?> selectAll() {
+				return evaluate(context);
+			}
+
+			@Override
+			protected boolean matches(final Element e) {
+				if (support == null) {
+					support = support(e);
+				}
+				return BooleanFunction.evaluate(evaluate(step, support, e), DocumentNavigator.getInstance()).booleanValue();
+			}
+		};
+	}
+
+	private List<?> evaluate(final Node context) {
+		final Object ret = evaluate(compiled, support(context), context);
+		if (ret instanceof List) {
+			return (List<?>) ret;
+		}
+		throw new IllegalArgumentException("XPath expression does not select nodes: " + xpath);
+	}
+
+	private ContextSupport support(final Node node) {
+		// Only the compiled expression is shared. Each evaluation gets its own context.
+		final SimpleVariableContext vars = new SimpleVariableContext();
+		for (Map.Entry<String, Object> e : variables.entrySet()) {
+			vars.setVariableValue(e.getKey(), e.getValue());
+		}
+		return new ContextSupport(DefaultNamespaceContext.create(node), XPathFunctionContext.getInstance(), vars,
+				DocumentNavigator.getInstance());
+	}
+
+	private Object evaluate(final Dom4jXPath x, final ContextSupport support, final Node node) {
+		final Context context = new Context(support);
+		context.setNodeSet(Collections.singletonList(node));
+		try {
+			return x.getRootExpr().evaluate(context);
+		} catch (JaxenException e) {
+			throw new RuntimeException("Error evaluating XPath expression: " + xpath, e);
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package de.mwvb.base.xml;
+
+import java.io.File;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.dom4j.Document;
+import org.dom4j.io.SAXReader;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Cache of compiled W3C XML schemas
+ *
+ * <p>A schema is compiled on its first use and then reused for all validated loads
+ * with the same location. Compiled schemas are thread-safe.
+ *
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+public class XMLSchemaCache {
+	private static final ConcurrentMap<String, Schema> schemas = new ConcurrentHashMap<String, Schema>();
+
+	private XMLSchemaCache() {
+	}
+
+	/**
+	 * Returns the compiled schema. The schema will be compiled if it is not in the cache.
+	 *
+	 * @param schemaLocation file name or URL beginning with "file:" or "http:"
+	 * @return Schema
+	 */
+	public static Schema getSchema(final String schemaLocation) {
+		Schema schema = schemas.get(schemaLocation);
+		if (schema == null) {
+			schema = compile(schemaLocation);
+			final Schema other = schemas.putIfAbsent(schemaLocation, schema);
+			if (other != null) {
+				schema = other;
+			}
+		}
+		return schema;
+	}
+
+	private static Schema compile(final String schemaLocation) {
+		try {
+			// SchemaFactory is not thread-safe.
+			final SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+			if (schemaLocation.startsWith("file:") || schemaLocation.startsWith("http:")) {
+				return factory.newSchema(new URL(schemaLocation));
+			}
+			return factory.newSchema(new File(schemaLocation));
+		} catch (Exception e) {
+			throw new RuntimeException("Error compiling XML schema '" + schemaLocation + "'!", e);
+		}
+	}
+
+	/**
+	 * Removes a schema from the cache, e.g. after the XSD file has been changed.
+	 *
+	 * @param schemaLocation file name or URL
+	 */
+	public static void remove(final String schemaLocation) {
+		schemas.remove(schemaLocation);
+	}
+
+	/**
+	 * Removes all schemas from the cache.
+	 */
+	public static void clear() {
+		schemas.clear();
+	}
+
+	/**
+	 * @return number of cached schemas
+	 */
+	public static int size() {
+		return schemas.size();
+	}
+
+	/**
+	 * Parses and validates in one SAX pass.
+	 *
+	 * @param source XML source
+	 * @param result validation messages are added to this object
+	 * @param documentFactory TrackingDocumentFactory.PLAIN or INSTANCE
+	 * @param lean true: drop whitespace-only text, comments and processing instructions
+	 * @return Document
+	 * @throws Exception if the document is not well-formed
+	 */
+	static Document read(final InputSource source, final XMLValidationResult result,
+			final TrackingDocumentFactory documentFactory, final boolean lean) throws Exception {
+		final SAXParserFactory factory = SAXParserFactory.newInstance();
+		factory.setNamespaceAware(true);
+		factory.setSchema(getSchema(result.getSchemaLocation()));
+		final SAXReader r = TrackingDocumentFactory.createReader(factory.newSAXParser().getXMLReader(), documentFactory, lean);
+		r.setErrorHandler(new ErrorHandler() {
+			@Override
+			public void warning(final SAXParseException e) {
+				result.add(XMLValidationResult.Severity.WARNING, e);
+			}
+
+			@Override
+			public void error(final SAXParseException e) {
+				result.add(XMLValidationResult.Severity.ERROR, e);
+			}
+
+			@Override
+			public void fatalError(final SAXParseException e) throws SAXException {
+				result.add(XMLValidationResult.Severity.FATAL_ERROR, e);
+				throw e;
+			}
+		});
+		return r.read(source);
+	}
+}
@@ -0,0 +1,228 @@
+package de.mwvb.base.xml;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.dom4j.Attribute;
+import org.dom4j.Branch;
+import org.dom4j.CharacterData;
+import org.dom4j.Comment;
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.Node;
+import org.dom4j.ProcessingInstruction;
+
+/**
+ * Structure and memory statistics of a XMLDocument or a XMLElement subtree
+ *
+ * <p>All figures are computed in one pass over the tree. Content of lazily loaded elements
+ * (see XMLDocument.loadFileLazy) which has not been loaded yet is not counted and will not be loaded.
+ *
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+public class XMLStatistics {
+	// Rough object sizes in bytes for a 64 bit JVM, same assumptions as XMLIndex.getEstimatedMemory()
+	private static final long ELEMENT = 48;
+	private static final long LAZY_ELEMENT = 64;
+	private static final long ATTRIBUTE = 32;
+	private static final long CHARACTER_DATA = 24;
+	private static final long LIST = 40 + 16;
+	private static final long REFERENCE = 8;
+	private static final long STRING = 40 + 16;
+	private static final long CHAR = 2;
+
+	private long elementCount;
+	private long attributeCount;
+	private long textNodeCount;
+	private long otherNodeCount;
+	private long unloadedElementCount;
+	private int maxDepth;
+	private Element widestElement;
+	private int widestElementChildCount;
+	private long characterCount;
+	private long attributeCharacterCount;
+	private long estimatedHeapSize;
+
+	private XMLStatistics() {
+	}
+
+	/**
+	 * @param node dom4j Document or Element
+	 * @return statistics of the node and all its descendants
+	 */
+	static XMLStatistics compute(final Branch node) {
+		final XMLStatistics s = new XMLStatistics();
+		if (node instanceof Document) {
+			s.estimatedHeapSize += 64;
+			s.content(node, 0);
+		} else if (node != null) {
+			s.element((Element) node, 1);
+		}
+		return s;
+	}
+
+	private void element(final Element e, final int depth) {
+		elementCount++;
+		if (depth > maxDepth) {
+			maxDepth = depth;
+		}
+		final boolean unloaded = e instanceof LazyElement && !((LazyElement) e).isLoaded();
+		estimatedHeapSize += e instanceof LazyElement ? LAZY_ELEMENT : ELEMENT;
+
+		final int n = e.attributeCount();
+		if (n > 1) {
+			estimatedHeapSize += LIST + n * REFERENCE;
+		}
+		for (int i = 0; i < n; i++) {
+			final Attribute a = e.attribute(i);
+			final int len = a.getValue().length();
+			attributeCount++;
+			attributeCharacterCount += len;
+			estimatedHeapSize += ATTRIBUTE + STRING + len * CHAR;
+		}
+
+		if (unloaded) {
+			unloadedElementCount++;
+		} else {
+			content(e, depth);
+		}
+	}
+
+	private void content(final Branch branch, final int depth) {
+		final int n = branch.nodeCount();
+		if (n > 1) {
+			estimatedHeapSize += LIST + n * REFERENCE;
+		}
+		int children = 0;
+		for (int i = 0; i < n; i++) {
+			final Node node = branch.node(i);
+			if (node instanceof Element) {
+				children++;
+				element((Element) node, depth + 1);
+			} else if (node instanceof CharacterData || node instanceof ProcessingInstruction) {
+				final String text = node.getText();
+				final int len = text == null ? 0 : text.length();
+				if (node instanceof Comment || node instanceof ProcessingInstruction) {
+					otherNodeCount++;
+				} else {
+					textNodeCount++;
+					characterCount += len;
+				}
+				estimatedHeapSize += CHARACTER_DATA + STRING + len * CHAR;
+			} else {
+				otherNodeCount++; // namespace, entity, DOCTYPE
+				estimatedHeapSize += CHARACTER_DATA;
+			}
+		}
+		if (branch instanceof Element && children > widestElementChildCount) {
+			widestElementChildCount = children;
+			widestElement = (Element) branch;
+		}
+	}
+
+	/**
+	 * @return number of elements incl. the start element
+	 */
+	public long getElementCount() {
+		return elementCount;
+	}
+
+	/**
+	 * @return number of attributes
+	 */
+	public long getAttributeCount() {
+		return attributeCount;
+	}
+
+	/**
+	 * @return number of text and CDATA nodes
+	 */
+	public long getTextNodeCount() {
+		return textNodeCount;
+	}
+
+	/**
+	 * @return number of comments, processing instructions, namespace declarations and other nodes
+	 */
+	public long getOtherNodeCount() {
+		return otherNodeCount;
+	}
+
+	/**
+	 * @return number of lazily loaded elements whose content has not been loaded yet
+	 */
+	public long getUnloadedElementCount() {
+		return unloadedElementCount;
+	}
+
+	/**
+	 * @return maximum element depth, 1 for a single element
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @return element with the most child elements, null if there is no element with child elements
+	 */
+	public XMLElement getWidestElement() {
+		return widestElement == null ? null : XMLElementImpl.create(widestElement);
+	}
+
+	/**
+	 * @return number of child elements of the widest element
+	 */
+	public int getWidestElementChildCount() {
+		return widestElementChildCount;
+	}
+
+	/**
+	 * @return total length of all text and CDATA nodes
+	 */
+	public long getCharacterCount() {
+		return characterCount;
+	}
+
+	/**
+	 * @return total length of all attribute values
+	 */
+	public long getAttributeCharacterCount() {
+		return attributeCharacterCount;
+	}
+
+	/**
+	 * Rough estimation of the heap memory retained by the tree. Element and attribute names are shared
+	 * and therefore not counted. Strings are counted with 2 bytes per character.
+	 *
+	 * @return bytes
+	 */
+	public long getEstimatedHeapSize() {
+		return estimatedHeapSize;
+	}
+
+	/**
+	 * All figures as name/value pairs, e.g. for publishing them to a monitoring system
+	 *
+	 * @return map in a fixed order
+	 */
+	public Map<String, Long> toMap() {
+		final Map<String, Long> ret = new LinkedHashMap<String, Long>();
+		ret.put("elements", elementCount);
+		ret.put("attributes", attributeCount);
+		ret.put("textNodes", textNodeCount);
+		ret.put("otherNodes", otherNodeCount);
+		ret.put("unloadedElements", unloadedElementCount);
+		ret.put("maxDepth", (long) maxDepth);
+		ret.put("widestElementChildren", (long) widestElementChildCount);
+		ret.put("characters", characterCount);
+		ret.put("attributeCharacters", attributeCharacterCount);
+		ret.put("estimatedHeapSize", estimatedHeapSize);
+		return ret;
+	}
+
+	@Override
+	public String toString() {
+		return toMap().toString();
+	}
+}
@@ -0,0 +1,318 @@
+package de.mwvb.base.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.dom4j.Element;
+import org.dom4j.io.STAXEventReader;
+import org.dom4j.io.STAXEventWriter;
+
+/**
+ * Streaming rewrite of XML without building a DOM for the whole document
+ * 
+ * <p>Rules are added with remove(), rename(), setValue(), removeEmptyAttributes() and replace().
+ * Then rewrite() copies the input to the output and applies the rules.
+ * Only subtrees processed by replace() are held in memory.
+ * 
+ * <p>Paths are matched against the original element names, see StreamPath for the syntax,
+ * e.g. "/catalog/product", "//person[@id='4711']".
+ * If a remove or replace rule matches, the other rules are not applied to that element.
+ * 
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+public class XMLStreamRewriter {
+	private static final int REMOVE = 1;
+	private static final int REPLACE = 2;
+	private static final int RENAME = 3;
+	private static final int SET_VALUE = 4;
+	private static final int REMOVE_EMPTY_ATTRIBUTES = 5;
+	private final List<Rule> rules = new ArrayList<Rule>();
+
+	/**
+	 * Changes a subtree which has been loaded as XMLElement.
+	 */
+	public interface Replacer {
+
+		/**
+		 * @param element subtree, root element of its own document, can be changed
+		 */
+		void replace(XMLElement element);
+	}
+
+	private static class Rule {
+		final int type;
+		final StreamPath path;
+		String name;
+		String value;
+		Replacer replacer;
+		Element replacement;
+
+		Rule(final int type, final String path) {
+			this.type = type;
+			this.path = new StreamPath(path);
+		}
+	}
+
+	/**
+	 * Removes the matching elements including their children.
+	 * 
+	 * @param path e.g. "//person[@city='Hamburg']"
+	 * @return this
+	 */
+	public XMLStreamRewriter remove(final String path) {
+		rules.add(new Rule(REMOVE, path));
+		return this;
+	}
+
+	/**
+	 * Removes the elements with given value in attribute "id".
+	 * 
+	 * @param id id value
+	 * @return this
+	 */
+	public XMLStreamRewriter removeById(final String id) {
+		if (id.indexOf('\'') >= 0) {
+			throw new IllegalArgumentException("id must not contain the ' character");
+		}
+		return remove("//*[@id='" + id + "']");
+	}
+
+	/**
+	 * Renames the matching elements.
+	 * 
+	 * @param path path of the elements
+	 * @param newName new element name
+	 * @return this
+	 */
+	public XMLStreamRewriter rename(final String path, final String newName) {
+		final Rule rule = new Rule(RENAME, path);
+		rule.name = newName;
+		rules.add(rule);
+		return this;
+	}
+
+	/**
+	 * Sets attribute value of the matching elements.
+	 * 
+	 * @param path path of the elements
+	 * @param attributeName attribute name
+	 * @param value new value, null: the attribute is removed
+	 * @return this
+	 */
+	public XMLStreamRewriter setValue(final String path, final String attributeName, final String value) {
+		final Rule rule = new Rule(SET_VALUE, path);
+		rule.name = attributeName;
+		rule.value = value;
+		rules.add(rule);
+		return this;
+	}
+
+	/**
+	 * Removes all empty attributes of the matching elements.
+	 * 
+	 * @param path path of the elements, "//*" for all elements
+	 * @return this
+	 */
+	public XMLStreamRewriter removeEmptyAttributes(final String path) {
+		rules.add(new Rule(REMOVE_EMPTY_ATTRIBUTES, path));
+		return this;
+	}
+
+	/**
+	 * Loads each matching subtree as XMLElement, lets the replacer change it and writes it.
+	 * 
+	 * @param path path of the elements
+	 * @param replacer changes the subtree
+	 * @return this
+	 */
+	public XMLStreamRewriter replace(final String path, final Replacer replacer) {
+		final Rule rule = new Rule(REPLACE, path);
+		rule.replacer = replacer;
+		rules.add(rule);
+		return this;
+	}
+
+	/**
+	 * Replaces each matching subtree by the given XML.
+	 * 
+	 * @param path path of the elements
+	 * @param xml valid XML String
+	 * @return this
+	 */
+	public XMLStreamRewriter replace(final String path, final String xml) {
+		final Rule rule = new Rule(REPLACE, path);
+		try {
+			rule.replacement = TrackingDocumentFactory.parseText(xml).getRootElement();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		rules.add(rule);
+		return this;
+	}
+
+	/**
+	 * Copies input to output and applies the rules.
+	 * 
+	 * @param in XML input, will be closed
+	 * @param out output, will not be closed
+	 */
+	public void rewrite(final InputStream in, final OutputStream out) {
+		try {
+			final XMLEventReader reader = XMLInputFactory.newInstance().createXMLEventReader(in);
+			try {
+				final XMLEventWriter writer = rewrite(reader, out);
+				if (writer != null) {
+					writer.flush();
+					writer.close();
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new RuntimeException(e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	private XMLEventWriter rewrite(final XMLEventReader reader, final OutputStream out) throws XMLStreamException {
+		final XMLEventFactory factory = XMLEventFactory.newInstance();
+		final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+		final List<StartElement> stack = new ArrayList<StartElement>();
+		final List<QName> writtenNames = new ArrayList<QName>();
+		XMLEventWriter writer = null;
+		while (reader.hasNext()) {
+			final XMLEvent event = reader.peek();
+			if (writer == null) {
+				String encoding = "UTF-8";
+				if (event.isStartDocument() && ((StartDocument) event).encodingSet()) {
+					encoding = ((StartDocument) event).getCharacterEncodingScheme();
+				}
+				writer = outputFactory.createXMLEventWriter(out, encoding);
+			}
+			if (event.isStartElement()) {
+				final StartElement start = event.asStartElement();
+				stack.add(start);
+				final Rule rule = findSubtreeRule(stack);
+				if (rule == null) {
+					reader.nextEvent();
+					final StartElement changed = apply(start, stack, factory);
+					writer.add(changed);
+					writtenNames.add(changed.getName());
+				} else if (rule.type == REMOVE) {
+					skipSubtree(reader);
+				} else if (rule.replacement != null) {
+					skipSubtree(reader);
+					new STAXEventWriter(writer).writeElement(rule.replacement);
+				} else {
+					final Element e = new STAXEventReader(TrackingDocumentFactory.PLAIN).readElement(reader);
+					TrackingDocumentFactory.PLAIN.createDocument(e);
+					rule.replacer.replace(XMLElementImpl.create(e));
+					new STAXEventWriter(writer).writeElement(e);
+				}
+				if (rule != null) {
+					stack.remove(stack.size() - 1);
+				}
+			} else if (event.isEndElement()) {
+				reader.nextEvent();
+				stack.remove(stack.size() - 1);
+				final QName name = writtenNames.remove(writtenNames.size() - 1);
+				if (name.equals(event.asEndElement().getName())) {
+					writer.add(event);
+				} else {
+					writer.add(factory.createEndElement(name, event.asEndElement().getNamespaces()));
+				}
+			} else {
+				writer.add(reader.nextEvent());
+			}
+		}
+		return writer;
+	}
+
+	private Rule findSubtreeRule(final List<StartElement> stack) {
+		for (Rule rule : rules) {
+			if ((rule.type == REMOVE || rule.type == REPLACE) && rule.path.matches(stack)) {
+				return rule;
+			}
+		}
+		return null;
+	}
+
+	private StartElement apply(final StartElement start, final List<StartElement> stack,
+			final XMLEventFactory factory) {
+		QName name = start.getName();
+		List<Attribute> attributes = null;
+		for (Rule rule : rules) {
+			if (rule.type < RENAME || !rule.path.matches(stack)) {
+				continue;
+			}
+			if (attributes == null) {
+				attributes = new ArrayList<Attribute>();
+				for (Iterator<?> iter = start.getAttributes(); iter.hasNext();) {
+					attributes.add((Attribute) iter.next());
+				}
+			}
+			if (rule.type == RENAME) {
+				name = new QName(name.getNamespaceURI(), rule.name, name.getPrefix());
+			} else if (rule.type == SET_VALUE) {
+				boolean found = false;
+				for (int i = attributes.size() - 1; i >= 0; i--) {
+					if (attributes.get(i).getName().getLocalPart().equals(rule.name)
+							&& attributes.get(i).getName().getNamespaceURI().length() == 0) {
+						found = true;
+						if (rule.value == null) {
+							attributes.remove(i);
+						} else {
+							attributes.set(i, factory.createAttribute(rule.name, rule.value));
+						}
+					}
+				}
+				if (!found && rule.value != null) {
+					attributes.add(factory.createAttribute(rule.name, rule.value));
+				}
+			} else if (rule.type == REMOVE_EMPTY_ATTRIBUTES) {
+				for (int i = attributes.size() - 1; i >= 0; i--) {
+					if (attributes.get(i).getValue().length() == 0) {
+						attributes.remove(i);
+					}
+				}
+			}
+		}
+		if (attributes == null) {
+			return start;
+		}
+		return factory.createStartElement(name, attributes.iterator(), start.getNamespaces());
+	}
+
+	private void skipSubtree(final XMLEventReader reader) throws XMLStreamException {
+		int depth = 0;
+		do {
+			final XMLEvent e = reader.nextEvent();
+			if (e.isStartElement()) {
+				depth++;
+			} else if (e.isEndElement()) {
+				depth--;
+			}
+		} while (depth > 0);
+	}
+}
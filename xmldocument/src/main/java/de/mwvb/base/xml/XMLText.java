@@ -0,0 +1,18 @@
+package de.mwvb.base.xml;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds a field to the text of the element, see XMLBinder.
+ * <p>Field types: same as for XMLAttr
+ * 
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface XMLText {
+}
@@ -0,0 +1,128 @@
+package de.mwvb.base.xml;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.xml.sax.SAXParseException;
+
+/**
+ * Result of a validated load
+ *
+ * <p>Contains all warnings and errors reported by the schema validation.
+ * The document is loaded even if it is not valid.
+ *
+ * @author Marcus Warm
+ * @since 0.3.0
+ */
+public class XMLValidationResult {
+	private final String schemaLocation;
+	private final List<Message> messages = new ArrayList<Message>();
+
+	/**
+	 * Severity of a validation message
+	 */
+	public enum Severity {
+		WARNING, ERROR, FATAL_ERROR
+	}
+
+	/**
+	 * Validation message
+	 */
+	public static class Message {
+		private final Severity severity;
+		private final int line;
+		private final int column;
+		private final String text;
+
+		Message(final Severity severity, final SAXParseException e) {
+			this.severity = severity;
+			line = e.getLineNumber();
+			column = e.getColumnNumber();
+			text = e.getMessage();
+		}
+
+		public Severity getSeverity() {
+			return severity;
+		}
+
+		/**
+		 * @return line number, -1 if not available
+		 */
+		public int getLine() {
+			return line;
+		}
+
+		/**
+		 * @return column number, -1 if not available
+		 */
+		public int getColumn() {
+			return column;
+		}
+
+		public String getMessage() {
+			return text;
+		}
+
+		@Override
+		public String toString() {
+			return severity + " (line " + line + ", column " + column + "): " + text;
+		}
+	}
+
+	XMLValidationResult(final String schemaLocation) {
+		this.schemaLocation = schemaLocation;
+	}
+
+	void add(final Severity severity, final SAXParseException e) {
+		messages.add(new Message(severity, e));
+	}
+
+	/**
+	 * @return schema location used for validation
+	 */
+	public String getSchemaLocation() {
+		return schemaLocation;
+	}
+
+	/**
+	 * @return true if there are no errors. Warnings are allowed.
+	 */
+	public boolean isValid() {
+		for (Message m : messages) {
+			if (m.getSeverity() != Severity.WARNING) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return all warnings and errors in document order
+	 */
+	public List<Message> getMessages() {
+		return Collections.unmodifiableList(messages);
+	}
+
+	/**
+	 * @return errors and fatal errors, without warnings
+	 */
+	public List<Message> getErrors() {
+		final List<Message> ret = new ArrayList<Message>();
+		for (Message m : messages) {
+			if (m.getSeverity() != Severity.WARNING) {
+				ret.add(m);
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder(isValid() ? "valid" : "not valid");
+		for (Message m : messages) {
+			sb.append("\n").append(m);
+		}
+		return sb.toString();
+	}
+}
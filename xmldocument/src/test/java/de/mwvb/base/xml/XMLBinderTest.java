@@ -0,0 +1,126 @@
+package de.mwvb.base.xml;
+
+import java.io.StringWriter;
+import java.util.List;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * XMLBinder Test
+ *
+ * @author Marcus Warm
+ */
+public class XMLBinderTest {
+	private static final String XML = "<persons>"
+			+ "<person id=\"1\" surname=\"O'Neill\" active=\"true\" kind=\"CUSTOMER\" rating=\"2.5\">"
+			+ "<note>first</note>"
+			+ "<address city=\"Berlin\"><line>Street 1</line><line>c/o X</line></address>"
+			+ "<address city=\"Hamburg\"/>"
+			+ "</person>"
+			+ "<other/>"
+			+ "<person id=\"2\" surname=\"Doe\"/>"
+			+ "</persons>";
+
+	enum Kind {
+		CUSTOMER, SUPPLIER
+	}
+
+	@XMLBound("person")
+	static class Person {
+		@XMLAttr
+		private int id;
+		@XMLAttr("surname")
+		private String name;
+		@XMLAttr
+		private boolean active;
+		@XMLAttr
+		private Kind kind;
+		@XMLAttr
+		private Double rating;
+		@XMLChild
+		private String note;
+		@XMLChild
+		private List<Address> addresses;
+		private String notBound = "x";
+	}
+
+	@XMLBound("address")
+	static class Address {
+		@XMLAttr
+		String city;
+		@XMLChild("line")
+		List<String> lines;
+
+		private Address() {
+		}
+	}
+
+	@Test
+	public void read() {
+		final XMLDocument dok = new XMLDocument(XML);
+		try {
+			final List<Person> persons = XMLBinder.of(Person.class).readChildren(dok.getElement());
+			Assert.assertEquals(2, persons.size());
+			final Person p = persons.get(0);
+			Assert.assertEquals(1, p.id);
+			Assert.assertEquals("O'Neill", p.name);
+			Assert.assertTrue(p.active);
+			Assert.assertEquals(Kind.CUSTOMER, p.kind);
+			Assert.assertEquals(Double.valueOf(2.5), p.rating);
+			Assert.assertEquals("first", p.note);
+			Assert.assertEquals("x", p.notBound);
+			Assert.assertEquals(2, p.addresses.size());
+			Assert.assertEquals("Berlin", p.addresses.get(0).city);
+			Assert.assertEquals("c/o X", p.addresses.get(0).lines.get(1));
+			Assert.assertTrue(p.addresses.get(1).lines.isEmpty());
+
+			final Person p2 = persons.get(1);
+			Assert.assertEquals("Doe", p2.name);
+			Assert.assertFalse(p2.active);
+			Assert.assertNull(p2.kind);
+			Assert.assertNull(p2.note);
+			Assert.assertTrue(p2.addresses.isEmpty());
+		} finally {
+			dok.close();
+		}
+	}
+
+	@Test
+	public void write() throws Exception {
+		final XMLDocument dok = new XMLDocument(XML);
+		final XMLDocument neu = new XMLDocument("<persons/>");
+		try {
+			final XMLBinder<Person> binder = XMLBinder.of(Person.class);
+			final List<Person> persons = binder.readChildren(dok.getElement());
+			final StringWriter sw = new StringWriter();
+			final XMLStreamWriter out = XMLOutputFactory.newInstance().createXMLStreamWriter(sw);
+			out.writeStartElement("persons");
+			for (Person p : persons) {
+				binder.add(neu.getElement(), p);
+				binder.write(p, out);
+			}
+			out.writeEndElement();
+			out.close();
+
+			final XMLDocument streamed = new XMLDocument(sw.toString());
+			Assert.assertTrue(streamed.contentEquals(neu));
+			Assert.assertEquals(2, neu.getChildren().size());
+			Assert.assertEquals("O'Neill", neu.getChildren().get(0).getValue("surname"));
+			Assert.assertEquals("c/o X", neu.selectNodes("//line").get(1).getText());
+			Assert.assertEquals("false", neu.getChildren().get(1).getValue("active"));
+			Assert.assertEquals("", neu.getChildren().get(1).getValue("kind"));
+
+			final Person p = binder.read(neu.getChildren().get(0));
+			Assert.assertEquals(Kind.CUSTOMER, p.kind);
+			Assert.assertEquals(persons.get(0).addresses.get(0).lines, p.addresses.get(0).lines);
+			streamed.close();
+		} finally {
+			dok.close();
+			neu.close();
+		}
+	}
+}
@@ -0,0 +1,803 @@
+package de.mwvb.base.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * XMLDocument Test
+ * 
+ * @author Marcus Warm
+ */
+public class XMLDocumentTest {
+
+	@Test
+	public void testSaveAndLoadAsync() throws Exception {
+		final File file = File.createTempFile("xmldocument", ".xml");
+		file.deleteOnExit();
+		final ExecutorService executor = XMLDocument.createLoadExecutor(2, 10);
+		try {
+			final XMLDocument dok = new XMLDocument("<doc><a name=\"Roger\"/></doc>");
+			dok.saveAsync(file.getPath(), executor).get(10, TimeUnit.SECONDS);
+
+			final XMLDocument loaded = XMLDocument.loadAsync(file.getPath(), executor).get(10, TimeUnit.SECONDS);
+			try {
+				Assert.assertEquals("Roger", loaded.selectSingleNode("/doc/a").getValue("name"));
+			} finally {
+				loaded.close();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testLoadAsyncWithParseExecutor() throws Exception {
+		final File file = File.createTempFile("xmldocument", ".xml");
+		file.deleteOnExit();
+		final XMLDocument dok = new XMLDocument("<doc><a name=\"Roger\"/></doc>");
+		dok.saveFile(file.getPath());
+		final ExecutorService io = XMLDocument.createLoadExecutor(1, 10);
+		final ExecutorService parse = XMLDocument.createLoadExecutor(2, 10);
+		try {
+			final XMLDocument loaded = XMLDocument.loadAsync(file.getPath(), io, parse).get(10, TimeUnit.SECONDS);
+			try {
+				Assert.assertEquals("Roger", loaded.selectSingleNode("/doc/a").getValue("name"));
+			} finally {
+				loaded.close();
+			}
+		} finally {
+			io.shutdown();
+			parse.shutdown();
+		}
+	}
+
+	@Test
+	public void testLoadAsyncCancel() throws Exception {
+		final File file = File.createTempFile("xmldocument", ".xml");
+		file.deleteOnExit();
+		new XMLDocument("<doc/>").saveFile(file.getPath());
+		final ThreadPoolExecutor io = (ThreadPoolExecutor) XMLDocument.createLoadExecutor(1, 10);
+		final ThreadPoolExecutor parse = (ThreadPoolExecutor) XMLDocument.createLoadExecutor(1, 10);
+		final CountDownLatch blocker = new CountDownLatch(1);
+		try {
+			io.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						blocker.await();
+					} catch (InterruptedException ignored) {
+					}
+				}
+			});
+			final Future<XMLDocument> f = XMLDocument.loadAsync(file.getPath(), io, parse);
+			Assert.assertTrue(f.cancel(true));
+			blocker.countDown();
+			io.shutdown();
+			Assert.assertTrue(io.awaitTermination(10, TimeUnit.SECONDS));
+			Assert.assertTrue(f.isCancelled());
+			Assert.assertEquals("parse stage must not be started", 0, parse.getTaskCount());
+		} finally {
+			io.shutdownNow();
+			parse.shutdown();
+		}
+	}
+
+	@Test
+	public void testInterruptibleInputStream() throws Exception {
+		final InterruptibleInputStream in = new InterruptibleInputStream(new ByteArrayInputStream("<doc/>".getBytes()));
+		Assert.assertEquals('<', in.read());
+		Thread.currentThread().interrupt();
+		try {
+			in.read(new byte[10], 0, 10);
+			Assert.fail("InterruptedIOException expected");
+		} catch (InterruptedIOException expected) {
+		} finally {
+			Thread.interrupted(); // clear flag
+		}
+		Assert.assertEquals('d', in.read());
+	}
+
+	@Test
+	public void testLoadExecutorRejectsWhenQueueIsFull() throws Exception {
+		final File file = File.createTempFile("xmldocument", ".xml");
+		file.deleteOnExit();
+		new XMLDocument("<doc/>").saveFile(file.getPath());
+		final ExecutorService executor = XMLDocument.createLoadExecutor(1, 1);
+		final CountDownLatch blocker = new CountDownLatch(1);
+		try {
+			executor.execute(new Runnable() { // occupies the thread
+				@Override
+				public void run() {
+					try {
+						blocker.await();
+					} catch (InterruptedException ignored) {
+					}
+				}
+			});
+			final Future<XMLDocument> queued = XMLDocument.loadAsync(file.getPath(), executor); // fills the queue
+			try {
+				XMLDocument.loadAsync(file.getPath(), executor);
+				Assert.fail("RejectedExecutionException expected");
+			} catch (RejectedExecutionException expected) {
+			}
+			blocker.countDown();
+			queued.get(10, TimeUnit.SECONDS).close();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testSerializationCache() {
+		final String xml = "<doc><a name=\"Roger\"><b>text</b><c/></a><x:ns xmlns:x=\"urn:x\"><d/></x:ns><e/></doc>";
+		final XMLDocument dok = new XMLDocument(xml);
+		final XMLDocument expected = new XMLDocument(xml);
+		try {
+			dok.setSerializationCache(true);
+			Assert.assertTrue(dok.isSerializationCache());
+			Assert.assertEquals(expected.getXML(), dok.getXML());
+			Assert.assertEquals(expected.getXML(), dok.getXML()); // from cache
+
+			dok.selectSingleNode("//b").setText("changed");
+			expected.selectSingleNode("//b").setText("changed");
+			Assert.assertEquals(expected.getXML(), dok.getXML());
+
+			dok.selectSingleNode("//a").setValue("name", "Ann");
+			expected.selectSingleNode("//a").setValue("name", "Ann");
+			dok.selectSingleNode("//c").setName("cc");
+			expected.selectSingleNode("//c").setName("cc");
+			dok.selectSingleNode("//d").add("new");
+			expected.selectSingleNode("//d").add("new");
+			Assert.assertEquals(expected.getXML(), dok.getXML());
+			Assert.assertEquals(expected.selectSingleNode("//a").getXML(), dok.selectSingleNode("//a").getXML());
+
+			dok.getElement().removeChildren(0, 0);
+			expected.getElement().removeChildren(0, 0);
+			dok.getElement().append("<f><g/></f>");
+			expected.getElement().append("<f><g/></f>");
+			dok.getElement().insertBefore(1, "h");
+			expected.getElement().insertBefore(1, "h");
+			Assert.assertEquals(expected.getXML(), dok.getXML());
+
+			dok.setSerializationCache(false);
+			Assert.assertEquals(expected.getXML(), dok.getXML());
+		} finally {
+			dok.close();
+			expected.close();
+		}
+	}
+
+	@Test
+	public void testTrackingElementsOnlyWhenNeeded() {
+		final XMLDocument dok = new XMLDocument("<doc><a name=\"Roger\"><b>text</b></a><!-- c --></doc>");
+		final XMLDocument plain = new XMLDocument("<p/>");
+		try {
+			Assert.assertFalse(((XMLElementImpl) dok.getElement()).element instanceof TrackingElement);
+			Assert.assertFalse(((XMLElementImpl) dok.getElement().add("x")).element instanceof TrackingElement);
+			final XMLElement old = dok.getElement().getChild(0);
+
+			dok.setSerializationCache(true);
+			try {
+				old.setValue("name", "Ann");
+				Assert.fail("IllegalStateException expected");
+			} catch (IllegalStateException expected) { // element has been replaced
+			}
+			try {
+				old.getChild(0).setText("lost");
+				Assert.fail("IllegalStateException expected");
+			} catch (IllegalStateException expected) {
+			}
+			final XMLElement root = dok.getElement();
+			Assert.assertTrue(((XMLElementImpl) root).element instanceof TrackingElement);
+			Assert.assertEquals("<doc><a name=\"Roger\"><b>text</b></a><!-- c --><x/></doc>", root.getXML());
+			Assert.assertTrue(((XMLElementImpl) root.add("y")).element instanceof TrackingElement);
+			root.append("<z><zz/></z>");
+			Assert.assertTrue(((XMLElementImpl) dok.selectSingleNode("//zz")).element instanceof TrackingElement);
+			Assert.assertTrue(((XMLElementImpl) root.insertBefore(0, "w")).element instanceof TrackingElement);
+			Assert.assertEquals("<doc><w/><a name=\"Roger\"><b>text</b></a><!-- c --><x/><y/><z><zz/></z></doc>",
+					root.getXML());
+
+			final XMLElement copy = dok.selectSingleNode("//a").copyTo(plain.getElement());
+			Assert.assertFalse(((XMLElementImpl) copy).element instanceof TrackingElement);
+			Assert.assertEquals("<p><a name=\"Roger\"><b>text</b></a></p>", plain.getElement().getXML());
+			plain.getElement().copyTo(root);
+			Assert.assertTrue(((XMLElementImpl) dok.selectSingleNode("//p/a/b")).element instanceof TrackingElement);
+		} finally {
+			dok.close();
+			plain.close();
+		}
+	}
+
+	@Test
+	public void testOptimizationsSwitchedOnBeforeLoading() throws Exception {
+		final File file = File.createTempFile("xmldocument", ".xml");
+		file.deleteOnExit();
+		new XMLDocument("<doc><a name=\"Roger\"><b/></a></doc>").saveFile(file.getPath());
+		final XMLDocument dok = new XMLDocument();
+		try {
+			dok.setNameIndex(true);
+			dok.setSerializationCache(true);
+			dok.loadFile(file.getPath());
+			Assert.assertTrue(dok.isNameIndex());
+			Assert.assertTrue(dok.isSerializationCache());
+			final XMLElement a = dok.selectSingleNode("//a");
+			Assert.assertTrue(((XMLElementImpl) a).element instanceof TrackingElement);
+			Assert.assertNotNull(((TrackingDocument) dok.getDom4jDocument()).getNameIndex());
+			Assert.assertEquals(1, dok.getDescendants("b").size());
+			final String before = dok.getXML();
+			a.add("b");
+			Assert.assertEquals(2, dok.getDescendants("b").size());
+			final String after = dok.getXML(); // cache has been invalidated
+			Assert.assertFalse(before.equals(after));
+			Assert.assertTrue(after.indexOf("<b/>") < after.lastIndexOf("<b/>"));
+
+			dok.loadStream(new java.io.FileInputStream(file)); // settings survive reloading
+			Assert.assertTrue(dok.isNameIndex());
+			Assert.assertTrue(dok.isSerializationCache());
+			Assert.assertTrue(((TrackingDocument) dok.getDom4jDocument()).isSerializationCache());
+			Assert.assertEquals(1, dok.getDescendants("b").size());
+
+			dok.setSerializationCache(false);
+			dok.setNameIndex(false);
+			dok.loadFile(file.getPath());
+			Assert.assertFalse(((XMLElementImpl) dok.getElement()).element instanceof TrackingElement);
+			Assert.assertNull(((TrackingDocument) dok.getDom4jDocument()).getNameIndex());
+		} finally {
+			dok.close();
+		}
+	}
+
+	@Test
+	public void testCopy() {
+		final XMLDocument dok = new XMLDocument("<doc><a name=\"Roger\"><b>text</b></a></doc>");
+		try {
+			final XMLDocument copy = dok.copy();
+			try {
+				Assert.assertEquals(dok.getXML(), copy.getXML());
+
+				copy.selectSingleNode("//a").setValue("name", "Ann");
+				Assert.assertEquals("Roger", dok.selectSingleNode("//a").getValue("name"));
+				Assert.assertEquals("Ann", copy.selectSingleNode("//a").getValue("name"));
+			} finally {
+				copy.close();
+			}
+		} finally {
+			dok.close();
+		}
+	}
+
+	@Test
+	public void testIndex() {
+		final XMLDocument dok = new XMLDocument("<persons><person surname=\"Doe\" id=\"1\"/>"
+				+ "<person surname=\"Miller\" id=\"2\"/><group><person surname=\"Doe\" id=\"3\"/></group>"
+				+ "<company surname=\"Doe\"/></persons>");
+		try {
+			final XMLIndex index = dok.createIndex("person", "surname");
+			Assert.assertEquals("1", index.get("Doe").getValue("id"));
+			Assert.assertEquals(2, index.getAll("Doe").size());
+			Assert.assertEquals(3, index.getEntryCount());
+			Assert.assertNull(index.get("Smith"));
+
+			// changes must be reflected
+			dok.byId("2").setValue("surname", "Smith");
+			Assert.assertNull(index.get("Miller"));
+			Assert.assertEquals("2", index.get("Smith").getValue("id"));
+			dok.getElement().add("person").setValue("surname", "Meyer");
+			Assert.assertEquals(1, index.getAll("Meyer").size());
+			dok.getElement().removeChildren("group");
+			Assert.assertEquals(1, index.getAll("Doe").size());
+			dok.getElement().append("<group><person surname=\"Mayer\"/></group>");
+			dok.selectSingleNode("//company").setName("person");
+			Assert.assertEquals(2, index.getAll("Doe").size());
+			dok.byId("1").removeAttribute("surname");
+			Assert.assertEquals(1, index.getAll("Doe").size());
+
+			Assert.assertEquals(2, index.getByPrefix("M").size());
+			Assert.assertEquals(2, index.getRange("Mayer", "N").size());
+			Assert.assertEquals(1, index.getRebuildCount());
+			Assert.assertTrue(index.getEstimatedMemory() > 0);
+
+			final int entries = index.getEntryCount();
+			index.rebuild();
+			Assert.assertEquals(entries, index.getEntryCount());
+			
+			dok.removeIndex(index);
+			dok.getElement().add("person").setValue("surname", "Doe");
+			Assert.assertEquals(1, index.getAll("Doe").size());
+		} finally {
+			dok.close();
+		}
+	}
+
+	@Test
+	public void testNameIndex() {
+		final XMLDocument dok = new XMLDocument("<orders><order id=\"1\"><item id=\"a\"/></order><order id=\"2\">"
+				+ "<item id=\"b\"/><item id=\"c\"/></order></orders>");
+		try {
+			dok.setNameIndex(true);
+			Assert.assertTrue(dok.isNameIndex());
+			assertSameNodes(dok, "item");
+			Assert.assertEquals(3, dok.getDescendants("item").size());
+			Assert.assertEquals(2, dok.byId("2").getDescendants("item").size());
+
+			dok.byId("2").add("item").setValue("id", "d");
+			assertSameNodes(dok, "item");
+			dok.getElement().insertBefore(0, "order").add("item").setValue("id", "e");
+			assertSameNodes(dok, "item");
+			Assert.assertEquals("e", dok.selectSingleNode("//item").getValue("id"));
+			dok.getElement().insertXMLBefore(1, "<order><item id=\"f\"/></order>");
+			dok.byId("1").append("<item id=\"g\"/>");
+			assertSameNodes(dok, "item");
+			dok.byId("c").setName("article");
+			assertSameNodes(dok, "item");
+			assertSameNodes(dok, "article");
+			dok.getElement().removeChildren(0, 1);
+			assertSameNodes(dok, "item");
+			assertSameNodes(dok, "order");
+			dok.removeChildById("b");
+			assertSameNodes(dok, "item");
+			final XMLElement order = dok.getElement().add("order");
+			for (int i = 0; i < 100; i++) {
+				order.add("item").setValue("id", "n" + i);
+			}
+			assertSameNodes(dok, "item");
+			order.removeChildren(10, 89);
+			assertSameNodes(dok, "item");
+			final org.dom4j.Element moved = ((XMLElementImpl) order.getChild(0)).element;
+			moved.detach(); // removed and added before the next access
+			((XMLElementImpl) order).element.add(moved);
+			assertSameNodes(dok, "item");
+			Assert.assertEquals("n0", dok.getDescendants("item").get(dok.getDescendants("item").size() - 1).getValue("id"));
+			
+			dok.setNameIndex(false);
+			assertSameNodes(dok, "item");
+		} finally {
+			dok.close();
+		}
+	}
+
+	private void assertSameNodes(final XMLDocument dok, final String name) {
+		final List<XMLElement> expected = dok.selectNodes("/descendant-or-self::" + name); // not using the index
+		Assert.assertEquals(expected, dok.selectNodes("//" + name));
+		Assert.assertEquals(expected, dok.getDescendants(name));
+	}
+
+	@Test
+	public void testLoadFileLazy() throws Exception {
+		final String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!-- prolog -->\n"
+				+ "<root xmlns:x=\"urn:x\" a=\"1\">\n"
+				+ "  <section id=\"s1\" expr=\"a &gt; b\" quoted='x>y'><x:item>\u00e4\u00f6\u00fc</x:item><section id=\"inner\"/></section>\n"
+				+ "  <!-- comment > -->\n"
+				+ "  <empty id=\"e\"/>\n"
+				+ "  <section id=\"s2\"><![CDATA[<no tag>]]><?pi data?><b>text</b></section>\n"
+				+ "</root>\n";
+		final File file = File.createTempFile("xmldocument", ".xml");
+		file.deleteOnExit();
+		final java.io.OutputStream out = new java.io.FileOutputStream(file);
+		try {
+			out.write(xml.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+
+		final XMLDocument expected = XMLDocument.load(file.getPath());
+		final XMLDocument dok = new XMLDocument();
+		try {
+			dok.loadFileLazy(file.getPath());
+			final XMLElement s1 = dok.getChildren().get(0);
+			Assert.assertEquals("s1", s1.getValue("id"));
+			Assert.assertFalse("content must not be loaded yet", ((LazyElement) ((XMLElementImpl) s1).element).isLoaded());
+			Assert.assertEquals("\u00e4\u00f6\u00fc", dok.byId("s1").getChildren().get(0).getText());
+			Assert.assertTrue(((LazyElement) ((XMLElementImpl) s1).element).isLoaded());
+
+			Assert.assertEquals(expected.getXML(), dok.getXML());
+			Assert.assertEquals("<no tag>", dok.byId("s2").getText());
+		} finally {
+			dok.close();
+			expected.close();
+		}
+	}
+
+	@Test
+	public void testLoadFileLazyWithNameIndex() throws Exception {
+		final File file = File.createTempFile("xmldocument", ".xml");
+		file.deleteOnExit();
+		final XMLDocument source = new XMLDocument("<root><a><b/><b/></a><a><b/></a></root>");
+		source.saveFileCompact(file.getPath());
+		source.close();
+
+		final XMLDocument dok = new XMLDocument();
+		try {
+			dok.loadFileLazy(file.getPath());
+			dok.setNameIndex(true);
+			Assert.assertEquals(3, dok.getDescendants("b").size());
+			Assert.assertEquals(dok.selectNodes("/descendant-or-self::b"), dok.getDescendants("b"));
+			Assert.assertEquals(2, dok.getDescendants("a").size());
+		} finally {
+			dok.close();
+		}
+	}
+
+	@Test
+	public void testLoadFileLazyConcurrentReads() throws Exception {
+		final File file = File.createTempFile("xmldocument", ".xml");
+		file.deleteOnExit();
+		final XMLDocument source = new XMLDocument("<root><a/></root>");
+		final XMLElement a = source.getChildren().get(0);
+		for (int i = 0; i < 2000; i++) {
+			a.add("b").setValue("n", "" + i);
+		}
+		source.saveFileCompact(file.getPath());
+		source.close();
+
+		final XMLDocument dok = new XMLDocument();
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			dok.loadFileLazy(file.getPath());
+			final XMLElement lazy = dok.getChildren().get(0);
+			final CountDownLatch start = new CountDownLatch(1);
+			final List<Future<Integer>> counts = new java.util.ArrayList<Future<Integer>>();
+			for (int t = 0; t < 4; t++) {
+				counts.add(executor.submit(new java.util.concurrent.Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						start.await();
+						return lazy.getChildren().size();
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<Integer> count : counts) {
+				Assert.assertEquals(2000, count.get(10, TimeUnit.SECONDS).intValue());
+			}
+		} finally {
+			executor.shutdown();
+			dok.close();
+		}
+	}
+
+	@Test
+	public void testValidatedLoad() throws Exception {
+		final String xsd = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">"
+				+ "<xs:element name=\"root\"><xs:complexType><xs:sequence>"
+				+ "<xs:element name=\"item\" maxOccurs=\"unbounded\"><xs:complexType>"
+				+ "<xs:attribute name=\"n\" type=\"xs:int\" use=\"required\"/>"
+				+ "</xs:complexType></xs:element>"
+				+ "</xs:sequence></xs:complexType></xs:element></xs:schema>";
+		final File file = File.createTempFile("xmldocument", ".xsd");
+		file.deleteOnExit();
+		final java.io.OutputStream out = new java.io.FileOutputStream(file);
+		try {
+			out.write(xsd.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		final String schema = file.getPath();
+
+		XMLDocument dok = new XMLDocument(new java.io.ByteArrayInputStream(
+				"<root><item n=\"1\"/><item n=\"2\"/></root>".getBytes("UTF-8")), schema);
+		try {
+			Assert.assertTrue(dok.getValidationResult().toString(), dok.getValidationResult().isValid());
+			Assert.assertEquals(2, dok.getChildren().size());
+			Assert.assertEquals("2", dok.getChildren().get(1).getValue("n"));
+		} finally {
+			dok.close();
+		}
+		Assert.assertSame(XMLSchemaCache.getSchema(schema), XMLSchemaCache.getSchema(schema));
+
+		dok = new XMLDocument();
+		try {
+			final XMLValidationResult result = dok.loadStream(new java.io.ByteArrayInputStream(
+					"<root><item n=\"x\"/>\n<other/></root>".getBytes("UTF-8")), schema);
+			Assert.assertFalse(result.isValid());
+			final List<XMLValidationResult.Message> errors = result.getErrors();
+			Assert.assertEquals(XMLValidationResult.Severity.ERROR, errors.get(0).getSeverity());
+			Assert.assertEquals(1, errors.get(0).getLine());
+			Assert.assertEquals(2, errors.get(errors.size() - 1).getLine());
+			Assert.assertEquals("document is loaded anyway", "other", dok.getChildren().get(1).getName());
+		} finally {
+			dok.close();
+		}
+
+		try {
+			new XMLDocument().loadStream(new java.io.ByteArrayInputStream("<root>".getBytes("UTF-8")), schema);
+			Assert.fail("RuntimeException expected");
+		} catch (RuntimeException expected) {
+		}
+	}
+
+	@Test
+	public void testLeanLoad() throws Exception {
+		final XMLDocument source = new XMLDocument("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<root><!-- comment --><?pi data?><a>  text with spaces  </a><b><![CDATA[ ]]></b><c>x <i>y</i> z</c></root>");
+		final File file = File.createTempFile("xmldocument", ".xml");
+		file.deleteOnExit();
+		source.saveFile(file.getPath()); // pretty print
+		source.close();
+
+		final XMLDocument full = XMLDocument.load(file.getPath());
+		final XMLDocument dok = XMLDocument.loadLean(file.getPath());
+		try {
+			Assert.assertTrue(dok.isLeanLoad());
+			Assert.assertTrue(full.getXML().contains("comment"));
+			Assert.assertFalse(dok.getXML().contains("comment"));
+			Assert.assertFalse(dok.getXML().contains("<?pi"));
+			Assert.assertEquals(3, dok.getChildren().size());
+			Assert.assertEquals(3, ((XMLElementImpl) dok.getElement()).element.nodeCount());
+			for (int i = 0; i < 3; i++) {
+				Assert.assertEquals(full.getChildren().get(i).getText(), dok.getChildren().get(i).getText());
+			}
+			Assert.assertEquals(" ", dok.getChildren().get(1).getText()); // CDATA is kept
+
+			dok.getElement().insertBefore(1, "new");
+			Assert.assertEquals("new", dok.getChildren().get(1).getName());
+			Assert.assertEquals("b", dok.getChildren().get(2).getName());
+			Assert.assertTrue(dok.getXML(), dok.getXML().contains("<a>text with spaces</a><new/><b>"));
+
+			final Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+			try {
+				w.write("<p><b>a</b> <i>b</i>\n</p>");
+			} finally {
+				w.close();
+			}
+			dok.loadFile(file.getPath());
+			Assert.assertEquals("<p><b>a</b> <i>b</i></p>", dok.getElement().getXML()); // space without line break is kept
+		} finally {
+			dok.close();
+			full.close();
+		}
+	}
+
+	@Test
+	public void testProjectionLoad() throws Exception {
+		final File file = File.createTempFile("xmldocument", ".xml");
+		file.deleteOnExit();
+		final XMLDocument source = new XMLDocument("<catalog version=\"2\"><!-- c -->"
+				+ "<product sku=\"1\" color=\"red\"><name>A</name><price cur=\"EUR\">9<!-- p --><![CDATA[.99]]></price></product>"
+				+ "<info><product sku=\"x\"/></info>"
+				+ "<product sku=\"2\"><price>5</price><x:stock xmlns:x=\"urn:x\">3</x:stock></product>"
+				+ "</catalog>");
+		source.saveFileCompact(file.getPath());
+		source.close();
+
+		final XMLDocument dok = XMLDocument.loadProjection(file.getPath(), "/catalog/product/@sku", "/catalog/product/price");
+		try {
+			Assert.assertEquals("<catalog><product sku=\"1\"><price cur=\"EUR\">9<!-- p --><![CDATA[.99]]></price></product>"
+					+ "<product sku=\"2\"><price>5</price></product></catalog>", dok.getElement().getXML());
+			Assert.assertEquals(2, dok.selectNodes("//price").size());
+			Assert.assertEquals("9.99", dok.selectSingleNode("//product[@sku='1']/price").getText());
+
+			dok.setLeanLoad(true);
+			dok.setProjection(XMLProjection.of("/*/*/@*", "/catalog/product/x:stock"));
+			dok.loadFile(file.getPath());
+			Assert.assertEquals("<catalog><product sku=\"1\" color=\"red\"/><info/>"
+					+ "<product sku=\"2\"><x:stock xmlns:x=\"urn:x\">3</x:stock></product></catalog>", dok.getElement().getXML());
+
+			dok.setProjection(XMLProjection.of("/other"));
+			dok.loadFile(file.getPath());
+			Assert.assertEquals("<catalog/>", dok.getElement().getXML());
+		} finally {
+			dok.close();
+		}
+		try {
+			XMLProjection.of("//price");
+			Assert.fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	@Test
+	public void testParallelLoad() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		final File file = File.createTempFile("xmldocument", ".xml");
+		file.deleteOnExit();
+		try {
+			for (int seed = 1; seed <= 20; seed++) {
+				final Random random = new Random(seed);
+				final StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!-- prolog -->\n"
+						+ "<root xmlns=\"urn:default\" xmlns:p=\"urn:p\" a=\"x &gt; y\">\n");
+				final int children = random.nextInt(50);
+				for (int i = 0; i < children; i++) {
+					appendRandomElement(random, sb, 0);
+					sb.append(random.nextBoolean() ? "\n  " : "text <![CDATA[</root>]]> &amp; <?pi x?><!-- <c> -->");
+				}
+				sb.append("</root>\n<!-- epilog -->");
+				final Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+				w.write(sb.toString());
+				w.close();
+
+				final XMLDocument expected = XMLDocument.load(file.getPath());
+				final XMLDocument dok = new XMLDocument();
+				dok.loadFileParallel(file.getPath(), executor, 1 + random.nextInt(300));
+				Assert.assertEquals("seed " + seed, expected.getXML(), dok.getXML());
+				Assert.assertTrue(dok.contentEquals(expected));
+				if (children > 0) {
+					Assert.assertEquals(dok.getElement(), dok.getChildren().get(0).getParent());
+				}
+				dok.getElement().add("new");
+				Assert.assertEquals("new", dok.getChildren().get(children).getName());
+				expected.close();
+				dok.close();
+			}
+
+			// DOCTYPE: not splittable, falls back to loadFile
+			final Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+			w.write("<!DOCTYPE root [<!ENTITY e \"entity\">]><root><a>&e;</a></root>");
+			w.close();
+			final XMLDocument dok = new XMLDocument();
+			dok.loadFileParallel(file.getPath(), executor);
+			Assert.assertEquals("entity", dok.selectSingleNode("/root/a").getText());
+			dok.close();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static void appendRandomElement(final Random random, final StringBuilder sb, final int depth) {
+		final String name = random.nextInt(4) == 0 ? "p:e" + depth : "e" + depth;
+		sb.append("<").append(name);
+		if (random.nextBoolean()) {
+			sb.append(" id='").append(random.nextInt(1000)).append(" > \"x\"'");
+		}
+		if (random.nextInt(5) == 0) {
+			sb.append(" xmlns:q=\"urn:q\" q:b=\"1\"");
+		}
+		if (random.nextInt(4) == 0) {
+			sb.append("/>");
+			return;
+		}
+		sb.append(">");
+		final int n = depth < 3 ? random.nextInt(4) : 0;
+		for (int i = 0; i < n; i++) {
+			switch (random.nextInt(4)) {
+			case 0:
+				sb.append("T\u00e4xt &lt;").append(i).append("&gt; \u20ac");
+				break;
+			case 1:
+				sb.append("<![CDATA[<x>").append(i).append("</x>]]>");
+				break;
+			case 2:
+				sb.append("<!-- <y> -->");
+				break;
+			default:
+				appendRandomElement(random, sb, depth + 1);
+			}
+		}
+		sb.append("</").append(name).append(">");
+	}
+
+	@Test
+	public void testStatistics() {
+		final XMLDocument dok = new XMLDocument("<root a=\"12\"><!-- c --><list><i>a</i><i>bc</i><i/></list>"
+				+ "<deep><x><y z=\"1\">text</y></x></deep></root>");
+		try {
+			final XMLStatistics s = dok.getStatistics();
+			Assert.assertEquals(8, s.getElementCount());
+			Assert.assertEquals(2, s.getAttributeCount());
+			Assert.assertEquals(3, s.getTextNodeCount());
+			Assert.assertEquals(1, s.getOtherNodeCount());
+			Assert.assertEquals(4, s.getMaxDepth());
+			Assert.assertEquals("list", s.getWidestElement().getName());
+			Assert.assertEquals(3, s.getWidestElementChildCount());
+			Assert.assertEquals(7, s.getCharacterCount());
+			Assert.assertEquals(3, s.getAttributeCharacterCount());
+			Assert.assertTrue(s.getEstimatedHeapSize() > 0);
+			Assert.assertEquals(Long.valueOf(8), s.toMap().get("elements"));
+
+			final XMLStatistics sub = dok.getStatistics(dok.selectSingleNode("//deep"));
+			Assert.assertEquals(3, sub.getElementCount());
+			Assert.assertEquals(3, sub.getMaxDepth());
+			Assert.assertEquals(4, sub.getCharacterCount());
+			Assert.assertTrue(sub.getEstimatedHeapSize() < s.getEstimatedHeapSize());
+		} finally {
+			dok.close();
+		}
+	}
+
+	@Test
+	public void testEarlyTerminatingQueries() {
+		final XMLDocument dok = new XMLDocument("<root><p id=\"1\" n=\"a\"><p id=\"2\" n=\"b\"/></p>"
+				+ "<q><p id=\"3\" n=\"a\"/><r id=\"4\">x</r></q><p id=\"5\"/></root>");
+		try {
+			final String[] xpaths = { "//p", "//p[@n='a']", "//*[@id]", "//*[text()='x']", "//p[1]", "/root/q/*", "//none" };
+			for (String xpath : xpaths) {
+				final List<XMLElement> expected = dok.selectNodes(xpath);
+				Assert.assertEquals(xpath, expected.size(), dok.count(xpath));
+				Assert.assertEquals(xpath, !expected.isEmpty(), dok.exists(xpath));
+				Assert.assertEquals(xpath, expected.subList(0, Math.min(2, expected.size())), dok.selectFirst(xpath, 2));
+				final List<XMLElement> lazy = new java.util.ArrayList<XMLElement>();
+				for (XMLElement e : dok.selectLazy(xpath)) {
+					lazy.add(e);
+				}
+				Assert.assertEquals(xpath, expected, lazy);
+			}
+
+			final XMLElement q = dok.selectSingleNode("/root/q");
+			Assert.assertEquals(q.selectNodes(".//p"), q.selectFirst(".//p", 5));
+			Assert.assertEquals(2, q.count("descendant::*"));
+			Assert.assertEquals(4, q.count("//p"));
+			Assert.assertFalse(q.exists(".//q"));
+			Assert.assertEquals("4", dok.byId("4").getValue("id"));
+			Assert.assertNull(dok.byId("99"));
+		} finally {
+			dok.close();
+		}
+	}
+
+	@Test
+	public void testEarlyTerminatingQueriesWithNumericPredicates() {
+		final XMLDocument dok = new XMLDocument("<root><t><p n=\"2\"/><p n=\"2\"/></t><u><p/><p><p/></p></u></root>");
+		try {
+			final String[] xpaths = { "//p[number(@n)]", "//p[count(p)]", "//p[(1)]", "//p[1 + 1]", "//p[@n > 1]",
+					"//p[not(p)]", "//*[p and count(p) > 1]", "//p[position() > 1]" };
+			for (String xpath : xpaths) {
+				final List<XMLElement> expected = dok.selectNodes(xpath);
+				Assert.assertEquals(xpath, expected.size(), dok.count(xpath));
+				Assert.assertEquals(xpath, expected.subList(0, Math.min(1, expected.size())), dok.selectFirst(xpath, 1));
+				final List<XMLElement> lazy = new java.util.ArrayList<XMLElement>();
+				for (XMLElement e : dok.selectLazy(xpath)) {
+					lazy.add(e);
+				}
+				Assert.assertEquals(xpath, expected, lazy);
+			}
+		} finally {
+			dok.close();
+		}
+	}
+
+	@Test
+	public void testContentHash() throws Exception {
+		final XMLDocument a = new XMLDocument("<r xmlns:p=\"urn:p\"><p:x b=\"2\" a=\"1\">t<!-- c --><![CDATA[u]]></p:x><y/></r>");
+		final XMLDocument b = new XMLDocument("<r xmlns:q=\"urn:p\"><q:x a=\"1\" b=\"2\">tu</q:x><y></y></r>");
+		try {
+			Assert.assertEquals(a.getContentHash(), b.getContentHash());
+			Assert.assertTrue(a.contentEquals(b));
+			Assert.assertFalse(a.getElement().contentEquals(a.getChildren().get(1)));
+
+			final XMLElement y = b.getChildren().get(1);
+			y.setValue("c", "3");
+			Assert.assertFalse("hash must be invalidated", a.getContentHash() == b.getContentHash());
+			Assert.assertFalse(a.contentEquals(b));
+			y.removeAttribute("c");
+			Assert.assertTrue(a.contentEquals(b));
+			y.setText(" ");
+			Assert.assertFalse(a.contentEquals(b));
+			y.setText("");
+			Assert.assertEquals(a.getContentHash(), b.getContentHash());
+
+			final XMLDocument c = a.copy();
+			Assert.assertTrue(c.contentEquals(a));
+			c.close();
+
+			final File file = File.createTempFile("xmldocument", ".xml");
+			file.deleteOnExit();
+			Assert.assertTrue(a.saveFileIfChanged(file.getPath()));
+			Assert.assertFalse(a.saveFileIfChanged(file.getPath()));
+			a.getElement().add("z");
+			Assert.assertTrue(a.saveFileIfChanged(file.getPath()));
+			Assert.assertFalse(a.saveFileIfChanged(file.getPath()));
+			a.saveFile(file.getPath()); // no content hash
+			Assert.assertTrue(a.saveFileIfChanged(file.getPath()));
+			Assert.assertEquals(3, XMLDocument.load(file.getPath()).getChildren().size());
+		} finally {
+			a.close();
+			b.close();
+		}
+	}
+}
@@ -1,5 +1,12 @@
 package de.mwvb.base.xml;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -111,4 +118,291 @@ public class XMLElementTest {
 			dok.close();
 		}
 	}
+
+	@Test
+	public void testCopyTo() {
+		XMLDocument source = new XMLDocument("<R><A id='1'><B>text</B></A></R>");
+		XMLDocument target = new XMLDocument("<T/>");
+		try {
+			XMLElement copy = source.byId("1").copyTo(target.getElement());
+			copy.setValue("id", "2");
+
+			Assert.assertEquals("<T><A id=\"2\"><B>text</B></A></T>", target.getElement().getXML());
+			Assert.assertEquals("<R><A id=\"1\"><B>text</B></A></R>", source.getElement().getXML());
+			Assert.assertTrue(target.getElement().equals(copy.getParent()));
+		} finally {
+			source.close();
+			target.close();
+		}
+	}
+
+	@Test
+	public void testTypedValues() {
+		XMLDocument dok = new XMLDocument("<R><A n='7' big='12345678901' d='2.5' ok='TRUE' empty=''/><A n='8'/><A/></R>");
+		try {
+			XMLElement a = dok.getChildren().get(0);
+			Assert.assertEquals(7, a.getInt("n", -1));
+			Assert.assertEquals(-1, a.getInt("empty", -1));
+			Assert.assertEquals(-1, a.getInt("missing", -1));
+			Assert.assertEquals(12345678901L, a.getLong("big", 0));
+			Assert.assertEquals(2.5d, a.getDouble("d", 0), 0.0001d);
+			Assert.assertTrue(a.getBoolean("ok", false));
+			Assert.assertTrue(a.getBoolean("missing", true));
+
+			a.setInt("n", 42);
+			a.setLong("big", -3L);
+			a.setDouble("d", 0.25d);
+			Assert.assertEquals("42", a.getValue("n"));
+			Assert.assertEquals(-3L, a.getLong("big", 0));
+			Assert.assertEquals(0.25d, a.getDouble("d", 0), 0.0001d);
+
+			Assert.assertArrayEquals(new int[] { 42, 8, 0 }, dok.getElement().getIntArray("n", 0));
+			Assert.assertArrayEquals(new long[] { 42, 8, -1 }, dok.getElement().getLongArray("n", -1));
+			Assert.assertEquals(3, dok.getElement().getDoubleArray("n", 0).length);
+		} finally {
+			dok.close();
+		}
+	}
+
+	@Test
+	public void testAttributes() {
+		XMLDocument dok = new XMLDocument("<R><A a='1' b='' c='3' d=''/></R>");
+		try {
+			XMLElement a = dok.getChildren().get(0);
+			final StringBuilder sb = new StringBuilder();
+			a.forEachAttribute(new XMLAttributeConsumer() {
+				@Override
+				public void accept(String name, String value) {
+					sb.append(name).append(':').append(value).append(';');
+				}
+			});
+			Assert.assertEquals("a:1;b:;c:3;d:;", sb.toString());
+			Assert.assertEquals("3", a.getAttributeValue(2));
+			
+			a.removeEmptyAttributes();
+			Assert.assertEquals("<A a=\"1\" c=\"3\"/>", a.getXML());
+			Assert.assertEquals("A{a=1, c=3}", a.toString());
+		} finally {
+			dok.close();
+		}
+	}
+
+	@Test
+	public void testChildIndex() {
+		checkChildIndex(false);
+		checkChildIndex(true);
+	}
+
+	/**
+	 * @param tracking true: TrackingElements, false: plain elements (IndexedElements)
+	 */
+	private void checkChildIndex(final boolean tracking) {
+		XMLDocument dok = new XMLDocument("<R>\n  <a/>\n  <b/>text<!-- c -->\n  <a/>\n</R>");
+		try {
+			dok.setSerializationCache(tracking);
+			XMLElement r = dok.getElement();
+			Assert.assertEquals(3, r.getChildrenCount());
+			Assert.assertEquals("b", r.getChild(1).getName());
+			Assert.assertEquals(2, r.indexByName("a", 1));
+			Assert.assertEquals(-1, r.indexByName("b", 2));
+
+			r.insertBefore(1, "x");
+			Assert.assertEquals("x", r.getChild(1).getName());
+			Assert.assertEquals("b", r.getChild(2).getName());
+			r.insertBefore(4, "last");
+			r.insertBefore(0, "first");
+			Assert.assertEquals(6, r.getChildrenCount());
+			Assert.assertEquals("<R>\n  <first/><a/>\n  <x/><b/>text<!-- c -->\n  <a/>\n<last/></R>", r.getXML());
+			Assert.assertEquals(4, r.indexByName("a", 2));
+
+			r.getChild(2).setName("a"); // changes name index
+			Assert.assertEquals(2, r.indexByName("a", 2));
+			r.add("y"); // changes child index
+			Assert.assertEquals("y", r.getChild(6).getName());
+			r.removeChildren(1, 2);
+			Assert.assertEquals(5, r.getChildrenCount());
+			Assert.assertEquals("b", r.getChild(1).getName());
+			r.setText("t"); // removes text, keeps elements
+			Assert.assertEquals("y", r.getChild(4).getName());
+			Assert.assertEquals(5, r.getChildren().size());
+			try {
+				r.getChild(5);
+				Assert.fail("IndexOutOfBoundsException expected");
+			} catch (IndexOutOfBoundsException expected) {
+			}
+			try {
+				r.insertBefore(6, "x");
+				Assert.fail("IndexOutOfBoundsException expected");
+			} catch (IndexOutOfBoundsException expected) {
+			}
+			try {
+				r.insertBefore(-1, "x");
+				Assert.fail("IndexOutOfBoundsException expected");
+			} catch (IndexOutOfBoundsException expected) {
+			}
+			Assert.assertEquals(5, r.getChildrenCount());
+			Assert.assertEquals("z", r.insertBefore(5, "z").getName()); // appends
+			Assert.assertEquals("z", r.getChild(5).getName());
+		} finally {
+			dok.close();
+		}
+	}
+
+	/**
+	 * Looping over the children of a plain document must not be quadratic.
+	 */
+	@Test(timeout = 10000)
+	public void testChildIndexScalesOnPlainDocument() {
+		final int n = 50000;
+		XMLDocument dok = new XMLDocument("<R/>");
+		try {
+			final XMLElement r = dok.getElement();
+			for (int i = 0; i < n; i++) {
+				r.add("e").setValue("n", "" + i);
+			}
+			for (int i = 0; i < r.getChildrenCount(); i++) {
+				Assert.assertEquals("" + i, r.getChild(i).getValue("n"));
+			}
+			for (int i = 0; i < 1000; i++) {
+				r.insertBefore(n / 2, "x");
+				Assert.assertEquals("x", r.getChild(n / 2).getName());
+			}
+			Assert.assertEquals(n + 1000, r.getChildrenCount());
+			Assert.assertEquals("" + (n / 2), r.getChild(n / 2 + 1000).getValue("n"));
+		} finally {
+			dok.close();
+		}
+	}
+
+	@Test
+	public void testSortAndMoveChildren() {
+		XMLDocument dok = new XMLDocument("<R>\n <e n=\"3\"/>\n <e n=\"1\"><x/></e>\n <e n=\"2\"/>t<e n=\"1\"/>\n</R>");
+		try {
+			dok.setNameIndex(true);
+			dok.setSerializationCache(true);
+			final XMLElement r = dok.getElement();
+			Assert.assertEquals(4, dok.getDescendants("e").size());
+			final String before = r.getXML();
+			r.sortChildren(new java.util.Comparator<XMLElement>() {
+				@Override
+				public int compare(XMLElement a, XMLElement b) {
+					return a.getInt("n", 0) - b.getInt("n", 0);
+				}
+			});
+			Assert.assertFalse(before.equals(r.getXML()));
+			Assert.assertEquals("<R>\n <e n=\"1\"><x/></e>\n <e n=\"1\"/>\n <e n=\"2\"/>t<e n=\"3\"/>\n</R>", r.getXML());
+			Assert.assertEquals(r.getChildren(), dok.getDescendants("e"));
+			Assert.assertEquals("x", r.getChild(0).getChild(0).getName());
+
+			r.moveChild(3, 0);
+			Assert.assertEquals("<R>\n <e n=\"3\"/>\n <e n=\"1\"><x/></e>\n <e n=\"1\"/>t<e n=\"2\"/>\n</R>", r.getXML());
+			r.moveChild(0, 3);
+			Assert.assertEquals("<R>\n <e n=\"1\"><x/></e>\n <e n=\"1\"/>\n <e n=\"2\"/>t<e n=\"3\"/>\n</R>", r.getXML());
+			Assert.assertEquals(r.getChildren(), dok.getDescendants("e"));
+			Assert.assertEquals(r, r.getChild(2).getParent());
+			Assert.assertEquals(3, r.getChild(3).getInt("n", 0));
+		} finally {
+			dok.close();
+		}
+	}
+
+	/**
+	 * Sorting and moving children of a plain document must not be quadratic.
+	 */
+	@Test(timeout = 10000)
+	public void testSortAndMoveChildrenScalesOnPlainDocument() {
+		final int n = 50000;
+		XMLDocument dok = new XMLDocument("<R/>");
+		try {
+			final XMLElement r = dok.getElement();
+			for (int i = 0; i < n; i++) {
+				r.add("e").setValue("n", "" + (n - i));
+			}
+			r.sortChildren(new java.util.Comparator<XMLElement>() {
+				@Override
+				public int compare(XMLElement a, XMLElement b) {
+					return a.getInt("n", 0) - b.getInt("n", 0);
+				}
+			});
+			for (int i = 0; i < 20; i++) {
+				r.moveChild(0, n - 1);
+				r.moveChild(n - 1, 0);
+			}
+			r.moveChild(0, n - 1);
+			Assert.assertEquals("2", r.getChild(0).getValue("n"));
+			Assert.assertEquals("1", r.getChild(n - 1).getValue("n"));
+			Assert.assertEquals(n, r.getChildrenCount());
+		} finally {
+			dok.close();
+		}
+	}
+
+	/**
+	 * Elements not created by XMLDocument have no child index.
+	 */
+	@Test
+	public void testMoveChildrenWithoutChildIndex() throws Exception {
+		final XMLElement r = XMLElementImpl.create(org.dom4j.DocumentHelper.parseText(
+				"<R><a/>t<b/><c/></R>").getRootElement());
+		r.moveChild(0, 2);
+		Assert.assertEquals("<R><b/>t<c/><a/></R>", r.getXML());
+		r.insertBefore(1, "x");
+		Assert.assertEquals("<R><b/>t<x/><c/><a/></R>", r.getXML());
+		Assert.assertEquals("c", r.getChild(2).getName());
+		Assert.assertEquals(r, r.getChild(3).getParent());
+	}
+
+	@Test
+	public void testStreamingText() {
+		final int chunk = 64 * 1024;
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; sb.length() < 3 * chunk; i++) {
+			sb.append("line ").append(i).append(" <&>\n");
+		}
+		final String text = sb.toString();
+		final XMLDocument dok = new XMLDocument("<root><text/><cdata/><bin/></root>");
+		try {
+			final XMLElement e = dok.selectSingleNode("//text");
+			e.setText(new StringReader(text));
+			Assert.assertEquals(text, e.getText());
+			Assert.assertEquals(4, ((XMLElementImpl) e).element.nodeCount());
+			final StringWriter sw = new StringWriter();
+			e.writeText(sw);
+			Assert.assertEquals(text, sw.toString());
+			e.setText(new StringReader(""));
+			Assert.assertEquals("", e.getText());
+
+			// "]]>" inside a chunk and spanning the chunk boundaries
+			final char[] filler = new char[chunk - 2];
+			Arrays.fill(filler, 'x');
+			final String cdata = new String(filler) + "]]>" + new String(filler) + "]]>" + "a]]>b";
+			dok.selectSingleNode("//cdata").setCdata(new StringReader(cdata));
+			Assert.assertEquals(cdata, dok.selectSingleNode("//cdata").getText());
+
+			final byte[] bytes = new byte[200001];
+			new Random(1).nextBytes(bytes);
+			final XMLElement bin = dok.selectSingleNode("//bin");
+			bin.setBase64(new ByteArrayInputStream(bytes));
+			Assert.assertEquals(0, bin.getText().length() % 4);
+
+			final XMLDocument loaded = new XMLDocument(dok.getXML());
+			try {
+				Assert.assertEquals(cdata, loaded.selectSingleNode("//cdata").getText());
+				final ByteArrayOutputStream out = new ByteArrayOutputStream();
+				loaded.selectSingleNode("//bin").writeBase64(out);
+				Assert.assertArrayEquals(bytes, out.toByteArray());
+			} finally {
+				loaded.close();
+			}
+
+			bin.setBase64(new ByteArrayInputStream(new byte[] { 'M' }));
+			Assert.assertEquals("TQ==", bin.getText());
+			bin.setText("TWFu\n TWE=");
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			bin.writeBase64(out);
+			Assert.assertEquals("ManMa", new String(out.toByteArray()));
+		} finally {
+			dok.close();
+		}
+	}
 }
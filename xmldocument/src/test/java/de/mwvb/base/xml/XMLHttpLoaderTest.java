@@ -0,0 +1,103 @@
+package de.mwvb.base.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * XMLHttpLoader Test using a local HTTP server
+ * 
+ * @author Marcus Warm
+ */
+public class XMLHttpLoaderTest {
+	private static final String ETAG = "\"v1\"";
+	private HttpServer server;
+	private String url;
+
+	@Before
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/feed.xml", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange ex) throws IOException {
+				if (ETAG.equals(ex.getRequestHeaders().getFirst("If-None-Match"))) {
+					ex.sendResponseHeaders(304, -1);
+				} else {
+					final ByteArrayOutputStream gz = new ByteArrayOutputStream();
+					final GZIPOutputStream zip = new GZIPOutputStream(gz);
+					zip.write("<config><entry key=\"a\" value=\"1\"/></config>".getBytes("UTF-8"));
+					zip.close();
+					ex.getResponseHeaders().set("ETag", ETAG);
+					ex.getResponseHeaders().set("Content-Encoding", "gzip");
+					ex.sendResponseHeaders(200, gz.size());
+					final OutputStream out = ex.getResponseBody();
+					out.write(gz.toByteArray());
+					out.close();
+				}
+				ex.close();
+			}
+		});
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/feed.xml";
+	}
+
+	@After
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	@Test
+	public void conditionalGet() {
+		final XMLHttpLoader loader = new XMLHttpLoader();
+		Assert.assertEquals("1", loader.load(url).selectSingleNode("//entry").getValue("value"));
+		Assert.assertEquals("1", loader.load(url).selectSingleNode("//entry").getValue("value"));
+
+		Assert.assertEquals(2, loader.getRequestCount());
+		Assert.assertEquals(1, loader.getDownloadCount());
+		Assert.assertEquals(1, loader.getNotModifiedCount());
+	}
+
+	@Test
+	public void diskCache() throws IOException {
+		final File dir = File.createTempFile("xmlcache", "");
+		dir.delete();
+		final XMLHttpLoader loader = new XMLHttpLoader();
+		loader.setCacheDirectory(dir);
+		loader.load(url).close();
+
+		final XMLHttpLoader loader2 = new XMLHttpLoader(); // empty memory cache
+		loader2.setCacheDirectory(dir);
+		Assert.assertEquals("a", loader2.load(url).selectSingleNode("//entry").getValue("key"));
+		Assert.assertEquals(1, loader2.getNotModifiedCount());
+		for (File f : dir.listFiles()) {
+			Assert.assertTrue(f.getName(), f.getName().matches("xml[0-9a-f]{40}\\.(xml|properties)")); // SHA-1
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void constructor() {
+		final long notModified = XMLHttpLoader.getDefault().getNotModifiedCount();
+		final XMLDocument dok = new XMLDocument(false, url);
+		try {
+			Assert.assertEquals("a", dok.selectSingleNode("//entry").getValue("key"));
+		} finally {
+			dok.close();
+		}
+		new XMLDocument(false, url).close();
+		Assert.assertEquals("default loader has no cache", notModified, XMLHttpLoader.getDefault().getNotModifiedCount());
+	}
+}
@@ -0,0 +1,106 @@
+package de.mwvb.base.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * XMLMonitor Test
+ *
+ * @author Marcus Warm
+ */
+public class XMLMonitorTest {
+	private static final String XML = "<root a=\"1\"><p>x</p><p/></root>";
+
+	/** records the events, queries are only monitored if queries is true */
+	static class RecordingMonitor extends XMLMonitor {
+		final List<String> events = new ArrayList<String>();
+		boolean queries = true;
+
+		@Override
+		protected Object loadStarted(final String sourceType) {
+			return "load";
+		}
+
+		@Override
+		protected void loadParsed(final Object token) {
+			events.add("parsed");
+		}
+
+		@Override
+		protected void loadFinished(final Object token, final String sourceType, final long size,
+				final XMLStatistics statistics) {
+			Assert.assertTrue("loadParsed() must be called before", events.remove("parsed"));
+			events.add(token + " " + sourceType + " " + size + " " + (statistics.getElementCount()
+					+ statistics.getAttributeCount() + statistics.getTextNodeCount() + statistics.getOtherNodeCount()));
+		}
+
+		@Override
+		protected Object queryStarted(final String xpath) {
+			return queries ? "query" : null;
+		}
+
+		@Override
+		protected void queryFinished(final Object token, final String xpath, final int resultSize) {
+			events.add(token + " " + xpath + " " + resultSize);
+		}
+
+		@Override
+		protected Object saveStarted(final String target) {
+			return "save";
+		}
+
+		@Override
+		protected void saveFinished(final Object token, final String target, final long size) {
+			events.add(token + " " + (target == null ? "getXML" : "file") + " " + size);
+		}
+	}
+
+	@Test
+	public void events() throws Exception {
+		final RecordingMonitor m = new RecordingMonitor();
+		final File file = File.createTempFile("XMLMonitorTest", ".xml");
+		XMLMonitor.install(m);
+		try {
+			final XMLDocument dok = new XMLDocument(XML);
+			// 3 elements, 1 attribute, 1 text node
+			Assert.assertEquals("load string " + XML.length() + " 5", m.events.get(0));
+
+			dok.selectNodes("//p");
+			dok.getElement().selectSingleNode("p[2]");
+			dok.count("//p");
+			XMLQuery.compile("//p[.=$t]").with("t", "x").selectNodes(dok);
+			Assert.assertEquals("query //p 2", m.events.get(1));
+			Assert.assertEquals("query p[2] 1", m.events.get(2));
+			Assert.assertEquals("query //p 2", m.events.get(3));
+			Assert.assertEquals("query //p[.=$t] 1", m.events.get(4));
+
+			Assert.assertEquals("save getXML " + dok.getXML().length(), m.events.get(5));
+			dok.saveFile(file.getPath());
+			Assert.assertEquals("save file " + file.length(), m.events.get(6));
+			dok.close();
+
+			m.events.clear();
+			XMLDocument.load(file.getPath()).close();
+			Assert.assertEquals("load file " + file.length() + " ", m.events.get(0).substring(0, m.events.get(0).lastIndexOf(' ') + 1));
+			new XMLDocument(new ByteArrayInputStream(XML.getBytes("UTF-8"))).close();
+			Assert.assertEquals("load stream " + XML.length() + " 5", m.events.get(1));
+
+			// disabled
+			m.events.clear();
+			m.queries = false;
+			final XMLDocument dok2 = new XMLDocument(XML);
+			dok2.selectNodes("//p");
+			dok2.exists("//p");
+			Assert.assertEquals(1, m.events.size());
+			dok2.close();
+		} finally {
+			XMLMonitor.install(null);
+			file.delete();
+		}
+	}
+}
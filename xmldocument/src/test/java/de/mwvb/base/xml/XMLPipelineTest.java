@@ -0,0 +1,113 @@
+package de.mwvb.base.xml;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * XMLPipeline Test
+ * 
+ * @author Marcus Warm
+ */
+public class XMLPipelineTest {
+	private static final int N = 500;
+
+	@Test
+	public void ordered() {
+		final List<Integer> results = new ArrayList<Integer>();
+		new XMLPipeline<Integer>("/catalog/product", new XMLPipeline.Processor<Integer>() {
+			@Override
+			public Integer process(XMLElement record) {
+				return Integer.valueOf(record.getInt("n", -1) * 2);
+			}
+		}, new XMLPipeline.Sink<Integer>() {
+			@Override
+			public void write(Integer result) {
+				results.add(result);
+			}
+		}).threads(4).maxInFlight(8).run(createInput());
+
+		Assert.assertEquals(N, results.size());
+		for (int i = 0; i < N; i++) {
+			Assert.assertEquals(i * 2, results.get(i).intValue());
+		}
+	}
+
+	@Test
+	public void unordered() {
+		final List<String> results = new ArrayList<String>();
+		new XMLPipeline<String>("/catalog/product", new XMLPipeline.Processor<String>() {
+			@Override
+			public String process(XMLElement record) {
+				// record is the root of its own document
+				return record.getParent() == null ? record.getValue("n") : null;
+			}
+		}, new XMLPipeline.Sink<String>() {
+			@Override
+			public void write(String result) {
+				results.add(result);
+			}
+		}).ordered(false).run(createInput());
+
+		Assert.assertEquals(N, results.size());
+		Assert.assertEquals(N, new HashSet<String>(results).size());
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void error() {
+		new XMLPipeline<String>("/catalog/product", new XMLPipeline.Processor<String>() {
+			@Override
+			public String process(XMLElement record) {
+				if ("7".equals(record.getValue("n"))) {
+					throw new IllegalStateException("test");
+				}
+				return "";
+			}
+		}, new XMLPipeline.Sink<String>() {
+			@Override
+			public void write(String result) {
+			}
+		}).run(createInput());
+	}
+
+	@Test
+	public void noSinkCallAfterError() throws InterruptedException {
+		final AtomicInteger calls = new AtomicInteger();
+		try {
+			new XMLPipeline<String>("/catalog/product", new XMLPipeline.Processor<String>() {
+				@Override
+				public String process(XMLElement record) {
+					if ("7".equals(record.getValue("n"))) {
+						throw new IllegalStateException("test");
+					}
+					return "";
+				}
+			}, new XMLPipeline.Sink<String>() {
+				@Override
+				public void write(String result) throws InterruptedException {
+					Thread.sleep(2);
+					calls.incrementAndGet();
+				}
+			}).threads(4).ordered(false).run(createInput());
+			Assert.fail("RuntimeException expected");
+		} catch (RuntimeException expected) {
+		}
+		final int n = calls.get();
+		Thread.sleep(50);
+		Assert.assertEquals(n, calls.get());
+	}
+
+	private ByteArrayInputStream createInput() {
+		final StringBuilder sb = new StringBuilder("<catalog>");
+		for (int i = 0; i < N; i++) {
+			sb.append("\n  <product n=\"").append(i).append("\"><name>P").append(i).append("</name></product>");
+		}
+		sb.append("</catalog>");
+		return new ByteArrayInputStream(sb.toString().getBytes());
+	}
+}
@@ -0,0 +1,95 @@
+package de.mwvb.base.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * XMLQuery Test
+ *
+ * @author Marcus Warm
+ */
+public class XMLQueryTest {
+	private static final XMLQuery BY_SURNAME = XMLQuery.compile("//person[@surname=$name]");
+
+	@Test
+	public void variables() {
+		final XMLDocument dok = new XMLDocument("<persons><person id=\"1\" surname=\"O'Neill\" age=\"30\"/>"
+				+ "<person id=\"2\" surname=\"Doe\" age=\"40\"/><person id=\"3\" surname=\"Doe\" age=\"50\"/></persons>");
+		try {
+			Assert.assertEquals("1", BY_SURNAME.with("name", "O'Neill").selectSingleNode(dok).getValue("id"));
+			Assert.assertEquals(2, BY_SURNAME.with("name", "Doe").selectNodes(dok).size());
+			Assert.assertEquals(2, BY_SURNAME.with("name", "Doe").count(dok));
+			Assert.assertFalse(BY_SURNAME.with("name", "x").exists(dok));
+			Assert.assertNull(BY_SURNAME.with("name", "x").selectSingleNode(dok));
+
+			final XMLQuery older = XMLQuery.compile("person[@surname=$name and @age > $age]");
+			Assert.assertEquals("3", older.with("name", "Doe").with("age", 45).selectSingleNode(dok.getElement()).getValue("id"));
+			Assert.assertEquals(0, older.with("name", "Doe").with("age", 60).count(dok.getElement()));
+
+			// not a simple descendant search
+			final XMLQuery path = XMLQuery.compile("/persons/person[$n]");
+			Assert.assertEquals("2", path.with("n", 2).selectSingleNode(dok).getValue("id"));
+
+			Assert.assertEquals("1", dok.byId("1").getValue("id"));
+			Assert.assertNull(dok.byId("it's"));
+			Assert.assertTrue(dok.removeChildById("2"));
+			Assert.assertFalse(dok.removeChildById("2"));
+			Assert.assertEquals(1, BY_SURNAME.with("name", "Doe").count(dok));
+		} finally {
+			dok.close();
+		}
+	}
+
+	@Test
+	public void numericPredicates() {
+		final XMLDocument dok = new XMLDocument("<r><t><p n=\"2\"/><p n=\"2\"/></t><u><p/><p><p/></p></u></r>");
+		try {
+			final String[] xpaths = { "//p[number(@n)]", "//p[count(p)]", "//p[(1)]", "//p[$n]", "//p[@n = $n]" };
+			for (String xpath : xpaths) {
+				final XMLQuery query = XMLQuery.compile(xpath).with("n", 2);
+				final List<XMLElement> expected = query.selectNodes(dok);
+				Assert.assertEquals(xpath, expected.size(), query.count(dok));
+				Assert.assertEquals(xpath, !expected.isEmpty(), query.exists(dok));
+				Assert.assertEquals(xpath, expected.isEmpty() ? null : expected.get(0), query.selectSingleNode(dok));
+			}
+			Assert.assertEquals(1, XMLQuery.compile("//p[number(@n)]").count(dok));
+			Assert.assertEquals(2, XMLQuery.compile("//p[$n]").with("n", 2).count(dok));
+			Assert.assertEquals(2, XMLQuery.compile("//p[@n = $n]").with("n", 2).count(dok));
+		} finally {
+			dok.close();
+		}
+	}
+
+	@Test
+	public void threads() throws Exception {
+		final XMLDocument dok = new XMLDocument("<persons/>");
+		for (int i = 0; i < 100; i++) {
+			dok.getElement().add("person").setValue("surname", "n" + i);
+		}
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<String>> results = new ArrayList<Future<String>>();
+			for (int i = 0; i < 100; i++) {
+				final String name = "n" + i;
+				results.add(executor.submit(new java.util.concurrent.Callable<String>() {
+					@Override
+					public String call() {
+						return BY_SURNAME.with("name", name).selectSingleNode(dok).getValue("surname");
+					}
+				}));
+			}
+			for (int i = 0; i < 100; i++) {
+				Assert.assertEquals("n" + i, results.get(i).get());
+			}
+		} finally {
+			executor.shutdown();
+			dok.close();
+		}
+	}
+}
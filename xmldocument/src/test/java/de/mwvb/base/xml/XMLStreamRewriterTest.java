@@ -0,0 +1,76 @@
+package de.mwvb.base.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * XMLStreamRewriter Test
+ * 
+ * @author Marcus Warm
+ */
+public class XMLStreamRewriterTest {
+	private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<persons><person id=\"1\" city=\"Hamburg\" note=\"\"><name>Doe</name></person>"
+			+ "<person id=\"2\" city=\"Berlin\"><name>Miller</name></person>"
+			+ "<group><person id=\"3\" city=\"Hamburg\"/></group></persons>";
+
+	@Test
+	public void rules() throws Exception {
+		final String result = rewrite(new XMLStreamRewriter()
+				.removeById("2")
+				.rename("//group", "team")
+				.setValue("//person[@city='Hamburg']", "country", "DE")
+				.setValue("/persons/person", "city", null)
+				.removeEmptyAttributes("//*"));
+
+		final XMLDocument dok = new XMLDocument(result);
+		try {
+			Assert.assertNull(dok.byId("2"));
+			Assert.assertNotNull(dok.selectSingleNode("/persons/team/person[@id='3']"));
+			Assert.assertEquals("DE", dok.byId("1").getValue("country"));
+			Assert.assertEquals("DE", dok.byId("3").getValue("country"));
+			Assert.assertFalse(dok.byId("1").hasAttribute("city"));
+			Assert.assertTrue(dok.byId("3").hasAttribute("city"));
+			Assert.assertFalse(dok.byId("1").hasAttribute("note"));
+			Assert.assertEquals("Doe", dok.selectSingleNode("//person[@id='1']/name").getText());
+		} finally {
+			dok.close();
+		}
+	}
+
+	@Test
+	public void replace() throws Exception {
+		final String result = rewrite(new XMLStreamRewriter()
+				.replace("//person[@id='1']", new XMLStreamRewriter.Replacer() {
+					@Override
+					public void replace(XMLElement element) {
+						element.removeChildren("name");
+						element.add("firstName", "John");
+					}
+				})
+				.replace("//group", "<empty/>"));
+
+		final XMLDocument dok = new XMLDocument(result);
+		try {
+			final XMLElement p1 = dok.byId("1");
+			Assert.assertEquals(3, p1.getAttributeCount());
+			Assert.assertEquals("Hamburg", p1.getValue("city"));
+			Assert.assertEquals(1, p1.getChildrenCount());
+			Assert.assertEquals("John", p1.selectSingleNode("firstName").getText());
+			Assert.assertNotNull(dok.selectSingleNode("/persons/empty"));
+			Assert.assertNull(dok.byId("3"));
+			Assert.assertNotNull(dok.byId("2"));
+		} finally {
+			dok.close();
+		}
+	}
+
+	private String rewrite(final XMLStreamRewriter rewriter) throws Exception {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		rewriter.rewrite(new ByteArrayInputStream(XML.getBytes("UTF-8")), out);
+		return out.toString("UTF-8");
+	}
+}